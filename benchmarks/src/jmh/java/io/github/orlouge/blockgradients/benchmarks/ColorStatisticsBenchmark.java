@@ -0,0 +1,81 @@
+package io.github.orlouge.blockgradients.benchmarks;
+
+import io.github.orlouge.blockgradients.ColorStatistics;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ColorStatisticsBenchmark {
+    // 16x16 block texture, 64x64 high resolution pack, 16x512 animation strip
+    @Param({"256", "4096", "8192"})
+    public int pixelCount;
+
+    private int[] pixels;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        pixels = new int[pixelCount];
+        int base = random.nextInt();
+        for (int i = 0; i < pixels.length; i++) {
+            // Textures are mostly variations of a few colors, so keep the channels clustered
+            int r = ((base & 0xFF) + random.nextInt(48)) & 0xFF;
+            int g = (((base >> 8) & 0xFF) + random.nextInt(48)) & 0xFF;
+            int b = (((base >> 16) & 0xFF) + random.nextInt(48)) & 0xFF;
+            pixels[i] = 0xFF000000 | (b << 16) | (g << 8) | r;
+        }
+    }
+
+    @Benchmark
+    public ColorStatistics singlePass() {
+        return ColorStatistics.compute(pixels);
+    }
+
+    @Benchmark
+    public double[] twoPass() {
+        return twoPass(pixels);
+    }
+
+    // The previous per-pixel implementation: histograms and sums, then a second pass for the deviation.
+    static double[] twoPass(int[] pixels) {
+        int[] histoR = new int[256], histoG = new int[256], histoB = new int[256];
+        int avgR = 0, avgG = 0, avgB = 0;
+        for (int pixel : pixels) {
+            int r = pixel & 0xFF, g = (pixel >> 8) & 0xFF, b = (pixel >> 16) & 0xFF;
+            avgR += r;
+            avgG += g;
+            avgB += b;
+            histoR[r] += 1;
+            histoG[g] += 1;
+            histoB[b] += 1;
+        }
+        int k = pixels.length / 2;
+        int medianR = median(histoR, k), medianG = median(histoG, k), medianB = median(histoB, k);
+        int stdR = 0, stdG = 0, stdB = 0;
+        for (int pixel : pixels) {
+            int r = pixel & 0xFF, g = (pixel >> 8) & 0xFF, b = (pixel >> 16) & 0xFF;
+            stdR += (r - medianR) * (r - medianR);
+            stdG += (g - medianG) * (g - medianG);
+            stdB += (b - medianB) * (b - medianB);
+        }
+        double n = pixels.length;
+        return new double[]{
+                avgR / (n * 255), avgG / (n * 255), avgB / (n * 255),
+                medianR / 255d, medianG / 255d, medianB / 255d,
+                Math.sqrt(stdR / n) / 255d, Math.sqrt(stdG / n) / 255d, Math.sqrt(stdB / n) / 255d
+        };
+    }
+
+    private static int median(int[] histogram, int k) {
+        int total = 0;
+        for (int i = 0; i < 256; i++) {
+            total += histogram[i];
+            if (total > k) return i;
+        }
+        return 127;
+    }
+}
@@ -0,0 +1,73 @@
+package io.github.orlouge.blockgradients.benchmarks;
+
+import io.github.orlouge.blockgradients.ColorGrid;
+import io.github.orlouge.blockgradients.ColorKDTree;
+import io.github.orlouge.blockgradients.GradientEngine;
+import io.github.orlouge.blockgradients.NeighborGraph;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+// Graph construction of a gradient map (GradientMap.build) and the generation of its rows, between two far apart entries.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class GradientEngineBenchmark {
+    @Param({"1000", "3000", "10000"})
+    public int size;
+
+    private float[] colors;
+    private int[] ids;
+    private ColorKDTree tree;
+    private NeighborGraph neighbors;
+    private int source, dest;
+
+    @Setup
+    public void setup() {
+        colors = SyntheticColors.clustered(size, 42);
+        ids = IntStream.range(0, size).toArray();
+        tree = new ColorKDTree(colors, ids);
+        neighbors = new ColorGrid(colors, ids, 0.15f).neighborGraph(size);
+        // Clusters can be isolated, so walk towards the center until the dark and the light endpoint are connected
+        for (float t = 0; t < 0.4f; t += 0.02f) {
+            source = tree.nearest(0.1f + t, 0.1f + t, 0.1f + t);
+            dest = tree.nearest(0.9f - t, 0.9f - t, 0.9f - t);
+            GradientEngine candidate = build();
+            if (candidate != null && candidate.nextPath() != null) return;
+        }
+        throw new IllegalStateException("No connected endpoints in the dataset");
+    }
+
+    @Benchmark
+    public GradientEngine build() {
+        return GradientEngine.build(colors, colors, ids, neighbors, source, dest, colors, tree);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int[] nextPath(Rows rows) {
+        int[] path = rows.engine.nextPath();
+        if (path == null) rows.finished = true;
+        return path;
+    }
+
+    // Rows depend on all the rows before them, so every measurement iteration starts a fresh map. When source and
+    // dest get disconnected, the map is rebuilt before the next invocation, outside of the measured time.
+    @State(Scope.Thread)
+    public static class Rows {
+        private GradientEngine engine;
+        private boolean finished;
+
+        @Setup(Level.Iteration)
+        public void start(GradientEngineBenchmark map) {
+            engine = map.build();
+            finished = false;
+        }
+
+        @Setup(Level.Invocation)
+        public void restartIfFinished(GradientEngineBenchmark map) {
+            if (finished) start(map);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package io.github.orlouge.blockgradients.benchmarks;
+
+import io.github.orlouge.blockgradients.ColorKDTree;
+import io.github.orlouge.blockgradients.KDTree;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class KDTreeBuildBenchmark {
+    @Param({"1000", "10000", "100000"})
+    public int size;
+
+    private float[] coords;
+    private int[] ids;
+    private List<Integer> elements;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        coords = new float[3 * size];
+        for (int i = 0; i < coords.length; i++) {
+            coords[i] = random.nextFloat();
+        }
+        ids = IntStream.range(0, size).toArray();
+        elements = IntStream.range(0, size).boxed().toList();
+    }
+
+    @Benchmark
+    public KDTree<Integer> genericConstructor() {
+        return new KDTree<>(elements, 3, (id, dimension) -> (double) coords[3 * id + dimension]);
+    }
+
+    @Benchmark
+    public ColorKDTree bulkLoadSequential() {
+        return new ColorKDTree(coords, ids, false);
+    }
+
+    @Benchmark
+    public ColorKDTree bulkLoadParallel() {
+        return new ColorKDTree(coords, ids, true);
+    }
+}
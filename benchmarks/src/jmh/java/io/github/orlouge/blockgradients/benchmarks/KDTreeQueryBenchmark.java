@@ -0,0 +1,63 @@
+package io.github.orlouge.blockgradients.benchmarks;
+
+import io.github.orlouge.blockgradients.ColorKDTree;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class KDTreeQueryBenchmark {
+    private static final int QUERIES = 1024, K = 8;
+
+    @Param({"1000", "10000", "100000"})
+    public int size;
+
+    private ColorKDTree tree;
+    private float[] queries;
+    private int[] neighborIds;
+    private double[] neighborDistances;
+
+    @Setup
+    public void setup() {
+        float[] coords = SyntheticColors.clustered(size, 42);
+        tree = new ColorKDTree(coords, IntStream.range(0, size).toArray());
+        Random random = new Random(7);
+        queries = new float[3 * QUERIES];
+        for (int i = 0; i < queries.length; i++) {
+            queries[i] = random.nextFloat();
+        }
+        neighborIds = new int[K * size];
+        neighborDistances = new double[K * size];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public void nearest(Blackhole blackhole) {
+        for (int i = 0; i < QUERIES; i++) {
+            blackhole.consume(tree.nearest(queries[3 * i], queries[3 * i + 1], queries[3 * i + 2]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public void rangeSearch(Blackhole blackhole) {
+        float[] min = new float[3], max = new float[3];
+        for (int i = 0; i < QUERIES; i++) {
+            for (int dim = 0; dim < 3; dim++) {
+                min[dim] = queries[3 * i + dim] - 0.05f;
+                max[dim] = queries[3 * i + dim] + 0.05f;
+            }
+            tree.rangeSearch(min, max, blackhole::consume);
+        }
+    }
+
+    @Benchmark
+    public int[] kNearestAll() {
+        return tree.kNearestAll(K, id -> true, neighborIds, neighborDistances);
+    }
+}
@@ -0,0 +1,44 @@
+package io.github.orlouge.blockgradients.benchmarks;
+
+import io.github.orlouge.blockgradients.ColorGrid;
+import io.github.orlouge.blockgradients.ColorKDTree;
+import io.github.orlouge.blockgradients.NeighborGraph;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/*
+ * Neighborhoods within the gradient map radius (0.15). Every entry has a few percent of the dataset as neighbors,
+ * so the graph grows quadratically: 100k entries would need over 10^8 neighbor slots and are left out.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class NeighborGraphBenchmark {
+    private static final float RADIUS = 0.15f;
+
+    @Param({"1000", "3000", "10000"})
+    public int size;
+
+    private float[] coords;
+    private int[] ids;
+    private ColorKDTree tree;
+
+    @Setup
+    public void setup() {
+        coords = SyntheticColors.clustered(size, 42);
+        ids = IntStream.range(0, size).toArray();
+        tree = new ColorKDTree(coords, ids);
+    }
+
+    @Benchmark
+    public NeighborGraph kdTreeRangeSearch() {
+        return NeighborGraph.rangeSearch(tree, coords, coords, ids, size, RADIUS, true);
+    }
+
+    @Benchmark
+    public NeighborGraph gridJoin() {
+        return new ColorGrid(coords, ids, RADIUS).neighborGraph(size);
+    }
+}
@@ -0,0 +1,31 @@
+package io.github.orlouge.blockgradients.benchmarks;
+
+import java.util.Random;
+
+// Block texture colors are clustered (stone, wood, wool and their variants), so most of the colors of a dataset
+// belong to gaussian clusters, over a uniform background of less common colors.
+public class SyntheticColors {
+    public static float[] clustered(int size, long seed) {
+        Random random = new Random(seed);
+        int clusters = Math.max(8, size / 50);
+        float[] centers = new float[3 * clusters];
+        for (int i = 0; i < centers.length; i++) {
+            centers[i] = random.nextFloat();
+        }
+        float[] coords = new float[3 * size];
+        for (int id = 0; id < size; id++) {
+            if (random.nextFloat() < 0.3f) {
+                for (int dim = 0; dim < 3; dim++) {
+                    coords[3 * id + dim] = random.nextFloat();
+                }
+                continue;
+            }
+            int cluster = random.nextInt(clusters);
+            for (int dim = 0; dim < 3; dim++) {
+                float value = centers[3 * cluster + dim] + (float) random.nextGaussian() * 0.05f;
+                coords[3 * id + dim] = Math.max(0, Math.min(1, value));
+            }
+        }
+        return coords;
+    }
+}
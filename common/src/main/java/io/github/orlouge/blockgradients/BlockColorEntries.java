@@ -12,55 +12,171 @@ import net.minecraft.client.texture.SpriteContents;
 import net.minecraft.registry.Registries;
 import net.minecraft.registry.RegistryKey;
 import net.minecraft.util.math.Direction;
+import net.minecraft.util.math.Vec3d;
 
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.regex.Matcher;
 
 public class BlockColorEntries {
+    private static final String DATASET_FNAME = "blockgradients-entries.tsv";
     private static ArrayList<BlockColorEntry> entries = null;
     private static final Map<Block, BlockColorEntry> entryMap = new HashMap<>();
+    // Candidates keep their id across resource reloads, keyed by block, sprite and face. The tree of their average
+    // colors outlives the entries: a reload only patches in the candidates that appeared, changed or disappeared.
+    private static final Map<String, Integer> candidateIds = new HashMap<>();
+    private static final ArrayDeque<Integer> freeCandidateIds = new ArrayDeque<>();
+    private static final MutableColorKDTree candidateTree = new MutableColorKDTree();
+    private static float[] candidateColors = new float[0];
 
     public static List<BlockColorEntry> getEntries() {
         if (entries == null) {
             Set<Map.Entry<RegistryKey<Block>, Block>> blockRegistry = Registries.BLOCK.getEntrySet();
-            List<BlockColorEntry> xSortedEntries =
-                    blockRegistry.stream()
-                    .flatMap(entry -> getBlockColor(entry.getValue()).stream())
-                    .sorted(Comparator.comparing(entry -> entry.averageColor().getX()))
+            // Models and sprites are gathered on the client thread, which also copies the pixels of every distinct
+            // sprite. Only the analysis of the copies runs in parallel, and the entries are then created in the
+            // order of the sequential walk, so ids and merges do not depend on the scheduling.
+            List<SpriteUse> spriteUses = blockRegistry.stream()
+                    .flatMap(entry -> getBlockSprites(entry.getValue()).stream())
                     .toList();
-            List<BlockColorEntry> ySortedEntries = new ArrayList<>();
-            for (BlockColorEntry entry : xSortedEntries) {
-                if (ySortedEntries.size() == 0 || !ySortedEntries.get(ySortedEntries.size() - 1).tryMerge(entry)) {
-                    ySortedEntries.add(entry);
-                }
-            }
-            ySortedEntries.sort(Comparator.comparing(entry -> entry.averageColor().getY()));
-            List<BlockColorEntry> zSortedEntries = new ArrayList<>();
-            for (BlockColorEntry entry : ySortedEntries) {
-                if (zSortedEntries.size() == 0 || !zSortedEntries.get(zSortedEntries.size() - 1).tryMerge(entry)) {
-                    zSortedEntries.add(entry);
-                }
-            }
-            zSortedEntries.sort(Comparator.comparing(entry -> entry.averageColor().getZ()));
-            entries = new ArrayList<>();
-            int id = 0;
-            for (BlockColorEntry entry : zSortedEntries) {
-                if (entries.size() == 0 || !entries.get(entries.size() - 1).tryMerge(entry)) {
-                    entry.id = id;
-                    entries.add(entry);
-                    id++;
-                }
+            Map<SpriteContents, SpriteAnalysis> analyses = new IdentityHashMap<>();
+            for (SpriteUse use : spriteUses) {
+                analyses.computeIfAbsent(use.sprite.getContents(), SpriteAnalysis::new);
             }
+            SpriteStatsCache statsCache = SpriteStatsCache.load();
+            analyses.values().parallelStream().forEach(analysis -> analysis.analyze(statsCache));
+            statsCache.save();
+            List<BlockColorEntry> candidates = spriteUses.stream()
+                    .map(use -> new BlockColorEntry(use.block, use.sprite, use.direction, analyses.get(use.sprite.getContents()).stats))
+                    .toList();
+            entries = mergeSimilar(candidates, patchCandidateTree(spriteUses, candidates));
             for (BlockColorEntry entry : entries) {
                 for (Block block : entry.getBlocks().keySet()) {
                     entryMap.put(block, entry);
                 }
             }
+            if (Config.EXPORT_DATASET) exportDataset(entries);
         }
 
         return entries;
     }
 
+    // Assigns the stable id of every candidate and brings the candidate tree up to date with the candidates.
+    private static int[] patchCandidateTree(List<SpriteUse> spriteUses, List<BlockColorEntry> candidates) {
+        List<String> keys = spriteUses.stream()
+                .map(use -> Registries.BLOCK.getId(use.block) + " " + use.sprite.getContents().getId() + " " + use.direction)
+                .toList();
+        Set<String> current = new HashSet<>(keys);
+        for (Iterator<Map.Entry<String, Integer>> known = candidateIds.entrySet().iterator(); known.hasNext(); ) {
+            Map.Entry<String, Integer> candidate = known.next();
+            if (current.contains(candidate.getKey())) continue;
+            candidateTree.remove(candidate.getValue());
+            freeCandidateIds.push(candidate.getValue());
+            known.remove();
+        }
+        // Ids of removed candidates are reused first
+        int[] ids = new int[keys.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = candidateIds.computeIfAbsent(keys.get(i), key -> freeCandidateIds.isEmpty() ? candidateIds.size() : freeCandidateIds.pop());
+        }
+        int idCount = candidateIds.size() + freeCandidateIds.size();
+        if (candidateColors.length < 3 * idCount) candidateColors = Arrays.copyOf(candidateColors, 3 * idCount);
+        for (int i = 0; i < ids.length; i++) {
+            Vec3d color = candidates.get(i).averageColor();
+            float x = (float) color.getX(), y = (float) color.getY(), z = (float) color.getZ();
+            int offset = 3 * ids[i];
+            if (candidateTree.contains(ids[i]) && candidateColors[offset] == x && candidateColors[offset + 1] == y && candidateColors[offset + 2] == z) {
+                continue;
+            }
+            candidateColors[offset] = x;
+            candidateColors[offset + 1] = y;
+            candidateColors[offset + 2] = z;
+            candidateTree.insert(ids[i], x, y, z);
+        }
+        return ids;
+    }
+
+    // Similar entries are clustered around representatives, found through the candidate tree. In candidate order,
+    // a candidate that is not in a cluster yet becomes a representative and takes every later unclustered candidate
+    // similar to it, so every member is similar to its representative and similar pairs cannot chain. Each cluster
+    // is merged into its representative, which keeps the result deterministic.
+    private static ArrayList<BlockColorEntry> mergeSimilar(List<BlockColorEntry> candidates, int[] ids) {
+        int count = candidates.size();
+        int[] candidateIndex = new int[candidateColors.length / 3];
+        Arrays.fill(candidateIndex, -1);
+        for (int i = 0; i < count; i++) candidateIndex[ids[i]] = i;
+        // Slightly wider than the threshold, so that float rounding cannot hide a pair isSimilar would accept
+        float halfWidth = (float) BlockColorEntry.SIMILAR_AVERAGE_DISTANCE * 1.01f;
+        float[] min = new float[3], max = new float[3];
+
+        ArrayList<BlockColorEntry> merged = new ArrayList<>();
+        int[] clusterEntry = new int[count];
+        Arrays.fill(clusterEntry, -1);
+        for (int i = 0; i < count; i++) {
+            if (clusterEntry[i] >= 0) continue;
+            BlockColorEntry representative = candidates.get(i);
+            representative.id = merged.size();
+            clusterEntry[i] = representative.id;
+            merged.add(representative);
+            for (int dim = 0; dim < 3; dim++) {
+                min[dim] = candidateColors[3 * ids[i] + dim] - halfWidth;
+                max[dim] = candidateColors[3 * ids[i] + dim] + halfWidth;
+            }
+            int first = i;
+            candidateTree.rangeSearch(min, max, id -> {
+                int j = candidateIndex[id];
+                if (j > first && clusterEntry[j] < 0 && representative.isSimilar(candidates.get(j))) {
+                    clusterEntry[j] = representative.id;
+                }
+            });
+        }
+        // Merged in candidate order, as the members were found in tree order
+        for (int i = 0; i < count; i++) {
+            BlockColorEntry representative = merged.get(clusterEntry[i]);
+            if (representative != candidates.get(i)) representative.merge(candidates.get(i));
+        }
+        return merged;
+    }
+
+    // Writes the entries in the format of ColorDataset, for the batch generator of the core module.
+    private static void exportDataset(List<BlockColorEntry> entries) {
+        Path path = ExampleExpectPlatform.getConfigDirectory().resolve(DATASET_FNAME);
+        try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            writer.write(ColorDataset.HEADER + "\n");
+            for (BlockColorEntry entry : entries) {
+                StringJoiner blocks = new StringJoiner(",");
+                for (Map.Entry<Block, Set<Direction>> block : entry.getBlocks().entrySet()) {
+                    String id = Registries.BLOCK.getId(block.getKey()).toString();
+                    if (block.getValue() != null) {
+                        StringJoiner faces = new StringJoiner(",", "[", "]");
+                        for (Direction direction : block.getValue()) faces.add(direction.asString());
+                        id += faces;
+                    }
+                    blocks.add(id);
+                }
+                ColorDataset.writeEntry(
+                        writer, entry.id, blocks.toString(),
+                        components(entry.averageColor()), components(entry.medianColor()), components(entry.stddevColor())
+                );
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static double[] components(Vec3d vec) {
+        return new double[]{vec.getX(), vec.getY(), vec.getZ()};
+    }
+
+    // Entries are analysed again on next use, from the reloaded textures. The candidate tree is kept, to be patched.
+    public static void invalidate() {
+        entries = null;
+        entryMap.clear();
+    }
+
     public static BlockColorEntry getEntry(int id) {
         if (entries == null) getEntries();
         return entries.get(id);
@@ -71,7 +187,7 @@ public class BlockColorEntries {
         return entryMap.get(block);
     }
 
-    private static List<BlockColorEntry> getBlockColor(Block block) {
+    private static List<SpriteUse> getBlockSprites(Block block) {
         BlockState state = block.getDefaultState();
         Matcher blacklistMatcher = Config.BLACKLIST_PATTERN.matcher(
                 Registries.BLOCK.getId(block).toString()
@@ -95,7 +211,7 @@ public class BlockColorEntries {
         MinecraftClient client = MinecraftClient.getInstance();
         BakedModelManager modelManager = client.getBakedModelManager();
         HashMap<Sprite, Direction> sprites = new HashMap<>();
-        ArrayList<BlockColorEntry> blockColors = new ArrayList<>();
+        ArrayList<SpriteUse> blockSprites = new ArrayList<>();
 
         for (Direction direction : Direction.values()) {
             if (state.isSideInvisible(state, direction)) {
@@ -120,10 +236,42 @@ public class BlockColorEntries {
             SpriteContents contents = spriteDir.getKey().getContents();
             NativeImage image = ((SpriteContentsAccessor) contents).getMipmapLevelsImages()[0];
             if (image.getFormat() == NativeImage.Format.RGBA) {
-                blockColors.add(new BlockColorEntry(block, contents, sprites.size() == 1 ? null : spriteDir.getValue()));
+                blockSprites.add(new SpriteUse(block, spriteDir.getKey(), sprites.size() == 1 ? null : spriteDir.getValue()));
             }
         }
 
-        return blockColors;
+        return blockSprites;
+    }
+
+    private static class SpriteUse {
+        public final Block block;
+        public final Sprite sprite;
+        public final Direction direction;
+
+        public SpriteUse(Block block, Sprite sprite, Direction direction) {
+            this.block = block;
+            this.sprite = sprite;
+            this.direction = direction;
+        }
+    }
+
+    private static class SpriteAnalysis {
+        private final String id;
+        private final int width, height;
+        private int[] pixels;
+        public SpriteStats stats = null;
+
+        public SpriteAnalysis(SpriteContents contents) {
+            NativeImage image = ((SpriteContentsAccessor) contents).getMipmapLevelsImages()[0];
+            this.id = contents.getId().toString();
+            this.width = image.getWidth();
+            this.height = image.getHeight();
+            this.pixels = SpriteStats.copyPixels(image);
+        }
+
+        public void analyze(SpriteStatsCache statsCache) {
+            this.stats = statsCache.get(id, pixels, width, height);
+            this.pixels = null;
+        }
     }
 }
@@ -1,110 +1,39 @@
 package io.github.orlouge.blockgradients;
 
-import io.github.orlouge.blockgradients.mixin.SpriteContentsAccessor;
 import net.minecraft.block.Block;
 import net.minecraft.block.Blocks;
-import net.minecraft.client.texture.AbstractTexture;
-import net.minecraft.client.texture.NativeImage;
-import net.minecraft.client.texture.NativeImageBackedTexture;
-import net.minecraft.client.texture.SpriteContents;
+import net.minecraft.client.texture.Sprite;
 import net.minecraft.text.Text;
 import net.minecraft.util.math.Direction;
 import net.minecraft.util.math.Vec3d;
 
 import java.util.*;
+import java.util.function.Function;
 
 public class BlockColorEntry {
+    public static final double SIMILAR_AVERAGE_DISTANCE = 0.015;
     public int id = -1;
     private final Vec3d dominant, average, stddev, median;
     public final boolean hasDominant;
     private final Map<Block, Set<Direction>> blocks =
             new TreeMap<>(Comparator.comparing(block -> block.getName().getString().length()));
-    private final List<AbstractTexture> textures;
-    private final List<SpriteContents> sprites;
+    private final List<Sprite> sprites;
 
-    public BlockColorEntry(Block block, SpriteContents spriteContents, Direction direction) {
+    public BlockColorEntry(Block block, Sprite sprite, Direction direction, SpriteStats stats) {
         this.blocks.put(block, direction != null ? new TreeSet<>(List.of(direction)) : null);
-        this.sprites = new ArrayList<>(List.of(spriteContents));
-        NativeImage image = ((SpriteContentsAccessor) spriteContents).getMipmapLevelsImages()[0];
-        this.textures = new ArrayList<>(List.of(new NativeImageBackedTexture(image)));
-        int width = image.getWidth(), height = image.getHeight();
-        int[] histoR = new int[256], histoG = new int[256], histoB = new int[256];
-
-        int avgR = 0, avgG = 0, avgB = 0, medianR = 127, medianG = 127, medianB = 127;
-
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int r = image.getRed(x, y), g = image.getGreen(x, y), b = image.getBlue(x, y);
-                r = r >= 0 ? r : 256 + r;
-                g = g >= 0 ? g : 256 + g;
-                b = b >= 0 ? b : 256 + b;
-                avgR += r;
-                avgG += g;
-                avgB += b;
-                histoR[r] += 1;
-                histoG[g] += 1;
-                histoB[b] += 1;
-            }
-        }
-
-        int k = (width * height) / 2, total = 0;
-        for (int i = 0; i < 256; i++) {
-            total += histoR[i];
-            if (total > k) {
-                medianR = i;
-                break;
-            }
-        }
-        total = 0;
-        for (int i = 0; i < 256; i++) {
-            total += histoG[i];
-            if (total > k) {
-                medianG = i;
-                break;
-            }
-        }
-        total = 0;
-        for (int i = 0; i < 256; i++) {
-            total += histoB[i];
-            if (total > k) {
-                medianB = i;
-                break;
-            }
-        }
-
+        this.sprites = new ArrayList<>(List.of(sprite));
+        this.average = stats.average;
+        this.median = stats.median;
+        this.stddev = stats.stddev;
 
-        this.average = new Vec3d(
-                (double) avgR / ((double) (width * height * 255)),
-                (double) avgG / ((double) (width * height * 255)),
-                (double) avgB / ((double) (width * height * 255))
+        this.hasDominant = ColorDataset.hasDominant(
+                average.x, average.y, average.z, median.x, median.y, median.z, stddev.x, stddev.y, stddev.z
         );
-        this.median = new Vec3d(medianR / 255d, medianG / 255d, medianB / 255d);
-
-        int stdR = 0, stdG = 0, stdB = 0;
-
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int r = image.getRed(x, y), g = image.getGreen(x, y), b = image.getBlue(x, y);
-                r = r >= 0 ? r : 256 + r;
-                g = g >= 0 ? g : 256 + g;
-                b = b >= 0 ? b : 256 + b;
-                int rd = (r - medianR) * (r - medianR), gd = (g - medianG) * (g - medianG), bd = (b - medianB) * (b - medianB);
-                stdR += rd;
-                stdG += gd;
-                stdB += bd;
-            }
-        }
-
-        this.stddev = new Vec3d(
-                Math.sqrt((double) stdR / ((double) (width * height))) / 255d,
-                Math.sqrt((double) stdG / ((double) (width * height))) / 255d,
-                Math.sqrt((double) stdB / ((double) (width * height))) / 255d
+        this.dominant = new Vec3d(
+                ColorDataset.dominantColor(average.x, median.x),
+                ColorDataset.dominantColor(average.y, median.y),
+                ColorDataset.dominantColor(average.z, median.z)
         );
-
-        if (this.median.length() == 0 || this.average.length() == 0) this.hasDominant = true;
-        else this.hasDominant = this.stddev.length() < 0.25 && this.median.dotProduct(this.average) / (this.median.length() * this.average.length()) > 0.99;
-
-        this.dominant = this.average.add(this.median).multiply(0.5);
     }
 
     public Vec3d averageColor() {
@@ -119,67 +48,26 @@ public class BlockColorEntry {
         return dominant;
     }
 
-    public Vec3d dominantFeatures() {
-        return features(dominantColor());
-    }
-
-    public Vec3d averageFeatures() {
-        return features(averageColor());
-    }
-
-    public static Double dominantColor(BlockColorEntry entry, int dimension) {
-        return switch (dimension) {
-            case 0 -> entry.dominant.getX();
-            case 1 -> entry.dominant.getY();
-            default -> entry.dominant.getZ();
-        };
+    public Vec3d stddevColor() {
+        return stddev;
     }
 
-    public static Double averageColor(BlockColorEntry entry, int dimension) {
-        return switch (dimension) {
-            case 0 -> entry.average.getX();
-            case 1 -> entry.average.getY();
-            default -> entry.average.getZ();
-        };
-    }
-
-    public Double dominantSquaredDistance(BlockColorEntry blockColorEntry) {
-        return this.dominantColor().squaredDistanceTo(blockColorEntry.dominantColor());
-    }
-
-    public Double averageSquaredDistance(BlockColorEntry blockColorEntry) {
-        return this.averageColor().squaredDistanceTo(blockColorEntry.averageColor());
-    }
-
-    public static Double dominantFeature(BlockColorEntry entry, int dimension) {
-        return switch (dimension) {
-            case 0 -> entry.dominantFeatures().x;
-            case 1 -> entry.dominantFeatures().y;
-            default -> entry.dominantFeatures().z;
-        };
-    }
-
-    public static Double averageFeature(BlockColorEntry entry, int dimension) {
-        return switch (dimension) {
-            case 0 -> entry.averageFeatures().x;
-            case 1 -> entry.averageFeatures().y;
-            default -> entry.averageFeatures().z;
-        };
-    }
-
-    private static Vec3d features(Vec3d color) {
-        return new Vec3d(color.x, color.y, color.z);
+    public static float[] colorArray(List<BlockColorEntry> entries, Function<BlockColorEntry, Vec3d> color) {
+        float[] colors = new float[3 * entries.size()];
+        for (BlockColorEntry entry : entries) {
+            Vec3d vec = color.apply(entry);
+            colors[3 * entry.id] = (float) vec.getX();
+            colors[3 * entry.id + 1] = (float) vec.getY();
+            colors[3 * entry.id + 2] = (float) vec.getZ();
+        }
+        return colors;
     }
 
     public Map<Block, Set<Direction>> getBlocks() {
         return this.blocks;
     }
 
-    public AbstractTexture getTexture(int offset) {
-        return textures.get(offset % textures.size());
-    }
-
-    public SpriteContents getSprite(int offset) {
+    public Sprite getSprite(int offset) {
         return sprites.get(offset % sprites.size());
     }
 
@@ -188,23 +76,26 @@ public class BlockColorEntry {
         //if (!this.isIdentical(other)) {
             return false;
         } else {
-            for (Block block : other.blocks.keySet()) {
-                Set<Direction> dirSet = this.blocks.computeIfAbsent(block, b -> new TreeSet<>());
-                Set<Direction> otherDirSet = other.blocks.get(block);
-                if (otherDirSet != null) {
-                    dirSet.addAll(otherDirSet);
-                } else {
-                    this.blocks.put(block, null);
-                }
-                this.sprites.addAll(other.sprites);
-                this.textures.addAll(other.textures);
-            }
+            this.merge(other);
             return true;
         }
     }
 
+    public void merge(BlockColorEntry other) {
+        for (Block block : other.blocks.keySet()) {
+            Set<Direction> dirSet = this.blocks.computeIfAbsent(block, b -> new TreeSet<>());
+            Set<Direction> otherDirSet = other.blocks.get(block);
+            if (otherDirSet != null) {
+                dirSet.addAll(otherDirSet);
+            } else {
+                this.blocks.put(block, null);
+            }
+        }
+        this.sprites.addAll(other.sprites);
+    }
+
     public boolean isSimilar(BlockColorEntry other) {
-        return other.averageColor().distanceTo(this.averageColor()) < 0.015 && other.medianColor().distanceTo(this.medianColor()) < 0.03 && other.stddev.distanceTo(this.stddev) < 0.04;
+        return other.averageColor().distanceTo(this.averageColor()) < SIMILAR_AVERAGE_DISTANCE && other.medianColor().distanceTo(this.medianColor()) < 0.03 && other.stddev.distanceTo(this.stddev) < 0.04;
     }
 
     /*
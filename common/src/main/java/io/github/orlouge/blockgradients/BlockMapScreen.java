@@ -1,40 +1,46 @@
 package io.github.orlouge.blockgradients;
 
 import com.mojang.blaze3d.systems.RenderSystem;
-import io.github.orlouge.blockgradients.mixin.SpriteContentsAccessor;
 import net.minecraft.client.MinecraftClient;
 import net.minecraft.client.gui.DrawContext;
 import net.minecraft.client.gui.screen.Screen;
 import net.minecraft.client.render.*;
-import net.minecraft.client.texture.AbstractTexture;
-import net.minecraft.client.texture.NativeImage;
-import net.minecraft.client.texture.NativeImageBackedTexture;
-import net.minecraft.client.texture.SpriteContents;
+import net.minecraft.client.texture.Sprite;
 import net.minecraft.item.BlockItem;
 import net.minecraft.item.ItemStack;
 import net.minecraft.text.OrderedText;
 import net.minecraft.text.Style;
 import net.minecraft.text.Text;
+import net.minecraft.util.Identifier;
 import net.minecraft.util.math.Direction;
 import net.minecraft.util.math.Vec3d;
 import org.joml.Matrix4f;
 
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 public class BlockMapScreen extends Screen {
-    private final GradientMap averageBlockMap, dominantBlockMap;
+    private static final int PREFETCH_ROWS = 8, SCROLL_PREFETCH_ROWS = 32, PLACEHOLDER_COLOR = 0x40FFFFFF;
+
+    private final List<BlockColorEntry> entries;
+    private final QuadBatch<Identifier> renderList = new QuadBatch<>();
+    private final BlockColorEntry source, dest;
+    // Each map is built off-thread the first time it is needed.
+    private CompletableFuture<GradientMap> averageBlockMap = null, dominantBlockMap = null;
     private int offsetX = 0, offsetY = 0, previousOffsetX = 0, previousOffsetY = 0, size = 16, previousSize = -1, maxColumns = 1;
-    private boolean resetSize = true, renderAverage = true;
+    private int lastRenderedOffsetY = 0;
+    private boolean resetSize = true, renderAverage = false, modeChosen = false;
     private float textureOffset = 0;
 
-    public BlockMapScreen(GradientMap averageBlockMap, GradientMap dominantBlockMap) {
+    public BlockMapScreen(List<BlockColorEntry> entries, BlockColorEntry source, BlockColorEntry dest) {
         super(Text.of("BlockMap"));
-        this.averageBlockMap = averageBlockMap;
-        this.dominantBlockMap = dominantBlockMap;
-        if (dominantBlockMap.getRow(0).size() > 0) renderAverage = false;
+        this.entries = entries;
+        this.source = source;
+        this.dest = dest;
+        getBlockMapFuture(false).thenAccept(blockMap -> blockMap.requestRows(PREFETCH_ROWS));
     }
 
     public static void openBlockMap(MinecraftClient mc) {
@@ -51,11 +57,9 @@ public class BlockMapScreen extends Screen {
             } else if (dest == null) {
                 mc.player.sendMessage(Text.of(destBlock.getBlock().getName().asTruncatedString(30) + " is translucent or blacklisted"), true);
             } else {
-                GradientMap averageBlockMap = GradientMap.build(BlockColorEntries.getEntries(), source, dest, false);
-                GradientMap dominantBlockMap = GradientMap.build(BlockColorEntries.getEntries(), source, dest, true);
                 while (KeyBindings.OPEN_BLOCKMAP_KEY_BINDING.get().wasPressed()) ;
                 if (mc.currentScreen == null) {
-                    mc.setScreen(new BlockMapScreen(averageBlockMap, dominantBlockMap));
+                    mc.setScreen(new BlockMapScreen(BlockColorEntries.getEntries(), source, dest));
                 } else if (mc.currentScreen instanceof BlockMapScreen) {
                     ((BlockMapScreen) mc.currentScreen).switchBlockMap();
                 }
@@ -72,18 +76,64 @@ public class BlockMapScreen extends Screen {
     @Override
     public void render(DrawContext context, int mouseX, int mouseY, float delta) {
         super.render(context, mouseX, mouseY, delta);
-        if (this.resetSize) {
-            if (this.renderAverage) {
-                this.setSize(width / (5 + IntStream.range(0, 10).map(y -> averageBlockMap.getRow(y).size()).max().orElse(0)));
-            } else {
-                this.setSize(width / (5 + IntStream.range(0, 10).map(y -> dominantBlockMap.getRow(y).size()).max().orElse(0)));
+        // The dominant map is shown by default, unless it turns out to have no rows at all.
+        if (!this.modeChosen && getBlockMapFuture(false).isDone()) {
+            GradientMap dominant = getBlockMap(false);
+            if (dominant == null || dominant.getGeneratedRows() > 0 || dominant.isFinished()) {
+                this.renderAverage = dominant == null || dominant.getGeneratedRows() == 0;
+                this.modeChosen = true;
             }
+        }
+        GradientMap blockMap = getBlockMap(this.renderAverage);
+        if (this.resetSize && this.modeChosen && blockMap != null && (blockMap.getGeneratedRows() >= 10 || blockMap.isFinished())) {
+            this.setSize(width / (5 + IntStream.range(0, 10).map(y -> blockMap.getRow(y).width()).max().orElse(0)));
             offsetY += 15;
             offsetX += 5;
             this.resetSize = false;
         }
         this.renderBackground(context);
-        this.renderBlockMap(context, this.renderAverage ? averageBlockMap : dominantBlockMap, mouseX, mouseY);
+        if (blockMap != null) {
+            this.renderBlockMap(context, blockMap, mouseX, mouseY);
+        } else if (!getBlockMapFuture(this.renderAverage).isDone()) {
+            context.drawTextWithShadow(this.textRenderer, Text.of("Building gradients..."), 1, 1, ~0);
+        }
+    }
+
+    @Override
+    public void removed() {
+        super.removed();
+        cancel(averageBlockMap);
+        cancel(dominantBlockMap);
+    }
+
+    // Maps are shared through the cache, so the build is left to complete and only row generation is stopped.
+    private static void cancel(CompletableFuture<GradientMap> blockMap) {
+        if (blockMap != null) blockMap.thenAccept(GradientMap::cancel);
+    }
+
+    private CompletableFuture<GradientMap> getBlockMapFuture(boolean average) {
+        if (average) {
+            if (averageBlockMap == null) averageBlockMap = buildBlockMap(false);
+            return averageBlockMap;
+        } else {
+            if (dominantBlockMap == null) dominantBlockMap = buildBlockMap(true);
+            return dominantBlockMap;
+        }
+    }
+
+    private CompletableFuture<GradientMap> buildBlockMap(boolean dominant) {
+        CompletableFuture<GradientMap> blockMap = GradientCache.getMap(entries, source, dest, dominant);
+        blockMap.exceptionally(e -> {
+            e.printStackTrace();
+            return null;
+        });
+        return blockMap;
+    }
+
+    // Returns null while the map is still being built, or if building it failed.
+    private GradientMap getBlockMap(boolean average) {
+        CompletableFuture<GradientMap> blockMap = getBlockMapFuture(average);
+        return blockMap.isDone() && !blockMap.isCompletedExceptionally() ? blockMap.join() : null;
     }
 
     public void switchBlockMap() {
@@ -93,9 +143,12 @@ public class BlockMapScreen extends Screen {
         this.offsetX = prevX;
         this.offsetY = prevY;
         this.previousSize = size;
-        this.size = prevSize;
+        this.size = prevSize == -1 ? size : prevSize;
         this.resetSize = this.resetSize || (prevSize == -1);
         this.renderAverage = !this.renderAverage;
+        this.modeChosen = true;
+        CompletableFuture<GradientMap> hidden = this.renderAverage ? dominantBlockMap : averageBlockMap;
+        if (hidden != null) hidden.thenAccept(GradientMap::cancel);
     }
 
     private void setSize(int size) {
@@ -103,51 +156,38 @@ public class BlockMapScreen extends Screen {
     }
 
     private void renderBlockMap(DrawContext context, GradientMap blockMap, int mouseX, int mouseY) {
-        RenderSystem.setShaderColor(1.0F, 1.0F, 1.0F, 1.0F);
-        RenderSystem.enableBlend();
-        RenderSystem.setShader(GameRenderer::getPositionTexProgram);
+        // Rows are generated in order, so prefetching extends the generated prefix past the last visible row,
+        // further ahead while scrolling down.
+        int firstRow = GradientMap.firstVisibleCell(offsetY, size), rowEnd = GradientMap.visibleCellEnd(offsetY, size, height);
+        blockMap.requestRows(rowEnd - 1 + (offsetY < lastRenderedOffsetY ? SCROLL_PREFETCH_ROWS : PREFETCH_ROWS));
+        lastRenderedOffsetY = offsetY;
 
         BlockColorEntry selectedEntry = null;
-        for (int gy = (-offsetY + height) / size; gy >= -offsetY / size; gy--) {
-            for (GradientMap.Cell cell : blockMap.getRow(gy)) {
-                int gx = cell.cellX;
-                maxColumns = Math.max(gx, maxColumns);
-                BlockColorEntry entry = cell.entry;
-                if (entry != null) {
-                    int x = offsetX + gx * size, y = offsetY + gy * size;
-                    if (x > -size && y > -size && x < width && y < height) {
-                        int spriteIndex = gy + (int) textureOffset;
-                        SpriteContentsAccessor sprite = (SpriteContentsAccessor) entry.getSprite(spriteIndex);
-                        SpriteContents.Animation animation = sprite.getAnimation();
-                        NativeImage image = sprite.getMipmapLevelsImages()[0];
-                        setShaderTexture(0, entry.getTexture(spriteIndex));
-                        float u = 0, v = 0, udiff = 1, vdiff = 1;
-                        if (animation != null && image != null) {
-                            udiff = (float) sprite.getWidth() / image.getWidth();
-                            vdiff = (float) sprite.getHeight() / image.getHeight();
-                            List<SpriteContents.AnimationFrame> frames = animation.frames;
-                            int frameIdx = (int) ((textureOffset - (int) textureOffset) * frames.size());
-                            frameIdx = frames.get(frameIdx).index;
-                            u = animation.getFrameX(frameIdx) * udiff;
-                            v = animation.getFrameY(frameIdx) * vdiff;
-                        }
-                        RenderSystem.setShader(GameRenderer::getPositionTexProgram);
-                        Matrix4f posMatrix = context.getMatrices().peek().getPositionMatrix();
-                        BufferBuilder bufferBuilder = Tessellator.getInstance().getBuffer();
-                        bufferBuilder.begin(VertexFormat.DrawMode.QUADS, VertexFormats.POSITION_TEXTURE);
-                        bufferBuilder.vertex(posMatrix, x, y, 0).texture(u, v).next();
-                        bufferBuilder.vertex(posMatrix, x, y + size, 0).texture(u, v + vdiff).next();
-                        bufferBuilder.vertex(posMatrix, x + size, y + size, 0).texture(u + udiff, v + vdiff).next();
-                        bufferBuilder.vertex(posMatrix, x + size, y, 0).texture(u + udiff, v).next();
-                        BufferRenderer.drawWithGlobalProgram(bufferBuilder.end());
-                        if (mouseX >= x && mouseY >= y && mouseX < x + size && mouseY < y + size) {
-                            selectedEntry = entry;
-                        }
-                    }
+        renderList.clear();
+        int generatedEnd = Math.min(rowEnd, blockMap.getGeneratedRows());
+        int firstColumn = GradientMap.firstVisibleCell(offsetX, size), columnEnd = GradientMap.visibleCellEnd(offsetX, size, width);
+        for (int gy = firstRow; gy < generatedEnd; gy++) {
+            GradientMap.Row row = blockMap.getRow(gy);
+            maxColumns = Math.max(row.width() - 1, maxColumns);
+            int y = offsetY + gy * size, spriteIndex = gy + (int) textureOffset;
+            for (int gx = firstColumn, end = Math.min(columnEnd, row.width()); gx < end; gx++) {
+                int x = offsetX + gx * size;
+                BlockColorEntry entry = row.entry(gx);
+                Sprite sprite = entry.getSprite(spriteIndex);
+                renderList.add(
+                        sprite.getAtlasId(), x, y, x + size, y + size,
+                        sprite.getMinU(), sprite.getMinV(), sprite.getMaxU(), sprite.getMaxV()
+                );
+                if (mouseX >= x && mouseY >= y && mouseX < x + size && mouseY < y + size) {
+                    selectedEntry = entry;
                 }
             }
         }
-
+        for (int gy = Math.max(firstRow, generatedEnd); gy < rowEnd && blockMap.isRowPending(gy); gy++) {
+            int y = offsetY + gy * size;
+            context.fill(Math.max(0, offsetX), y, Math.min(width, offsetX + (maxColumns + 1) * size), y + size, PLACEHOLDER_COLOR);
+        }
+        drawQuads(context, renderList);
 
         if (renderAverage) {
             context.drawTextWithShadow(this.textRenderer, Text.of("Average color"), 1, 1, ~0);
@@ -180,8 +220,27 @@ public class BlockMapScreen extends Screen {
         }
     }
 
-    private static void setShaderTexture(int i, AbstractTexture texture) {
-        RenderSystem.setShaderTexture(i, texture.getGlId());
+    // Cells are sampled from the block atlas, so a frame is normally a single draw call.
+    private static void drawQuads(DrawContext context, QuadBatch<Identifier> quads) {
+        RenderSystem.setShaderColor(1.0F, 1.0F, 1.0F, 1.0F);
+        RenderSystem.enableBlend();
+        RenderSystem.setShader(GameRenderer::getPositionTexProgram);
+        Matrix4f posMatrix = context.getMatrices().peek().getPositionMatrix();
+        for (int group = 0; group < quads.groupCount(); group++) {
+            int quadCount = quads.quadCount(group);
+            if (quadCount == 0) continue;
+            float[] q = quads.quads(group);
+            RenderSystem.setShaderTexture(0, quads.texture(group));
+            BufferBuilder bufferBuilder = Tessellator.getInstance().getBuffer();
+            bufferBuilder.begin(VertexFormat.DrawMode.QUADS, VertexFormats.POSITION_TEXTURE);
+            for (int i = 0, end = quadCount * QuadBatch.FLOATS_PER_QUAD; i < end; i += QuadBatch.FLOATS_PER_QUAD) {
+                bufferBuilder.vertex(posMatrix, q[i], q[i + 1], 0).texture(q[i + 4], q[i + 5]).next();
+                bufferBuilder.vertex(posMatrix, q[i], q[i + 3], 0).texture(q[i + 4], q[i + 7]).next();
+                bufferBuilder.vertex(posMatrix, q[i + 2], q[i + 3], 0).texture(q[i + 6], q[i + 7]).next();
+                bufferBuilder.vertex(posMatrix, q[i + 2], q[i + 1], 0).texture(q[i + 6], q[i + 5]).next();
+            }
+            BufferRenderer.drawWithGlobalProgram(bufferBuilder.end());
+        }
     }
 
     @Override
@@ -1,15 +1,27 @@
 package io.github.orlouge.blockgradients;
 
 import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
 import java.util.regex.Pattern;
 
 public class Config {
     private static final String BLACKLIST_FNAME = "blockgradients-blacklist.txt";
+    private static final String PROPERTIES_FNAME = "blockgradients.properties";
     public static Pattern BLACKLIST_PATTERN;
+    public static NeighborIndex NEIGHBOR_INDEX = NeighborIndex.KD_TREE;
+    public static boolean EXPORT_DATASET = false;
+    public static int DIRECTION_BUCKETS = 0;
+    public static ColorSpace COLOR_SPACE = ColorSpace.SRGB;
+    public static int MAP_CACHE_MB = 64;
 
     public static void loadConfig() {
         List<String> patterns = List.of(
@@ -38,5 +50,76 @@ public class Config {
         }
         blacklistRegex = new StringBuilder(blacklistRegex.substring(1));
         BLACKLIST_PATTERN = Pattern.compile(blacklistRegex.toString());
+
+        loadProperties();
+    }
+
+    private static void loadProperties() {
+        Properties properties = new Properties();
+        File f = new File(ExampleExpectPlatform.getConfigDirectory() + "/" + PROPERTIES_FNAME);
+        if (f.isFile() && f.canRead()) {
+            try (Reader reader = new FileReader(f)) {
+                properties.load(reader);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        NEIGHBOR_INDEX = getEnum(properties, "neighbor_index", NeighborIndex.KD_TREE);
+        COLOR_SPACE = getEnum(properties, "color_space", ColorSpace.SRGB);
+        EXPORT_DATASET = getBoolean(properties, "export_dataset", false);
+        // Approximate maps from graphs precomputed for this many directions, at most 128; 0 builds the exact graph of
+        // every map
+        DIRECTION_BUCKETS = Math.max(0, Math.min(DirectionBuckets.MAX_COUNT, getInt(properties, "direction_buckets", 0)));
+        // Memory for keeping recently opened maps with their generated rows; the last opened map is always kept
+        MAP_CACHE_MB = Math.max(0, getInt(properties, "map_cache_mb", 64));
+
+        try (Writer writer = new FileWriter(f)) {
+            properties.store(writer, "Block Gradients");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static <E extends Enum<E>> E getEnum(Properties properties, String key, E defaultValue) {
+        String value = properties.getProperty(key);
+        E result = defaultValue;
+        if (value != null) {
+            try {
+                result = Enum.valueOf(defaultValue.getDeclaringClass(), value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                e.printStackTrace();
+            }
+        }
+        properties.setProperty(key, result.name().toLowerCase(Locale.ROOT));
+        return result;
+    }
+
+    private static int getInt(Properties properties, String key, int defaultValue) {
+        String value = properties.getProperty(key);
+        int result = defaultValue;
+        if (value != null) {
+            try {
+                result = Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                e.printStackTrace();
+            }
+        }
+        properties.setProperty(key, Integer.toString(result));
+        return result;
+    }
+
+    private static boolean getBoolean(Properties properties, String key, boolean defaultValue) {
+        String value = properties.getProperty(key);
+        boolean result = value != null ? Boolean.parseBoolean(value.trim()) : defaultValue;
+        properties.setProperty(key, Boolean.toString(result));
+        return result;
+    }
+
+    public enum NeighborIndex {
+        // One box range search per entry in a KD tree
+        KD_TREE,
+        // Single all-pairs sphere join over a uniform grid
+        GRID
     }
 }
@@ -0,0 +1,135 @@
+package io.github.orlouge.blockgradients;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+
+/*
+ * Everything derived from the loaded textures: the entries, the neighbor index built from them and the recently
+ * built maps. A resource reload invalidates all of it, except the tree BlockColorEntries merges entries with, which is
+ * patched. The index is tied to the entries list it was built from, so a build that was still running during a
+ * reload cannot bring back a stale index for the new entries.
+ * Maps keep their generated rows while cached; the least recently used ones are dropped once the maps and the index
+ * hold more than the configured amount of memory.
+ */
+public class GradientCache {
+    private static volatile IndexVersion index = null;
+    private static final Object indexLock = new Object();
+    private static final LinkedHashMap<MapKey, CompletableFuture<GradientMap>> maps = new LinkedHashMap<>(16, 0.75f, true);
+
+    // Called on the client thread when resources are reloaded.
+    public static void invalidate() {
+        synchronized (maps) {
+            for (CompletableFuture<GradientMap> blockMap : maps.values()) {
+                blockMap.thenAccept(GradientMap::cancel);
+            }
+            maps.clear();
+        }
+        synchronized (indexLock) {
+            index = null;
+        }
+        BlockColorEntries.invalidate();
+    }
+
+    public static CompletableFuture<GradientMap> getMap(List<BlockColorEntry> entries, BlockColorEntry source, BlockColorEntry dest, boolean dominant) {
+        MapKey key = new MapKey(entries, source.id, dest.id, dominant);
+        synchronized (maps) {
+            CompletableFuture<GradientMap> blockMap = maps.get(key);
+            if (blockMap == null || blockMap.isCompletedExceptionally()) {
+                blockMap = GradientMap.buildAsync(entries, source, dest, dominant);
+                maps.put(key, blockMap);
+                // The bound is checked again whenever the map or the index grows
+                blockMap.thenAccept(map -> {
+                    map.setGrowthListener(GradientCache::trim);
+                    trim();
+                });
+            }
+            evict();
+            return blockMap;
+        }
+    }
+
+    private static void trim() {
+        synchronized (maps) {
+            evict();
+        }
+    }
+
+    public static GradientIndex getIndex(List<BlockColorEntry> entries) {
+        IndexVersion current = index;
+        if (current == null || current.entries != entries) {
+            synchronized (indexLock) {
+                current = index;
+                if (current == null || current.entries != entries) {
+                    boolean[] hasDominant = new boolean[entries.size()];
+                    for (BlockColorEntry entry : entries) hasDominant[entry.id] = entry.hasDominant;
+                    current = new IndexVersion(entries, new GradientIndex(
+                            BlockColorEntry.colorArray(entries, BlockColorEntry::averageColor),
+                            BlockColorEntry.colorArray(entries, BlockColorEntry::dominantColor),
+                            hasDominant, Config.COLOR_SPACE, Config.NEIGHBOR_INDEX == Config.NeighborIndex.GRID,
+                            Config.DIRECTION_BUCKETS
+                    ));
+                    index = current;
+                }
+            }
+        }
+        return current.index;
+    }
+
+    // The index counts too, and maps still being built count as empty. The most recently used map always stays;
+    // if that is not enough, the direction buckets of the index are dropped, to be computed again when needed.
+    private static void evict() {
+        IndexVersion current = index;
+        long size = current != null ? current.index.memorySize() : 0, limit = Config.MAP_CACHE_MB * 1024L * 1024L;
+        for (CompletableFuture<GradientMap> blockMap : maps.values()) {
+            size += memorySize(blockMap);
+        }
+        Iterator<CompletableFuture<GradientMap>> eldest = maps.values().iterator();
+        while (size > limit && maps.size() > 1 && eldest.hasNext()) {
+            size -= memorySize(eldest.next());
+            eldest.remove();
+        }
+        if (size > limit && current != null) current.index.releaseBuckets();
+    }
+
+    private static long memorySize(CompletableFuture<GradientMap> blockMap) {
+        GradientMap map = blockMap.isDone() && !blockMap.isCompletedExceptionally() ? blockMap.join() : null;
+        return map != null ? map.memorySize() : 0;
+    }
+
+    private static class IndexVersion {
+        public final List<BlockColorEntry> entries;
+        public final GradientIndex index;
+
+        public IndexVersion(List<BlockColorEntry> entries, GradientIndex index) {
+            this.entries = entries;
+            this.index = index;
+        }
+    }
+
+    private static class MapKey {
+        private final List<BlockColorEntry> entries;
+        private final int source, dest;
+        private final boolean dominant;
+
+        public MapKey(List<BlockColorEntry> entries, int source, int dest, boolean dominant) {
+            this.entries = entries;
+            this.source = source;
+            this.dest = dest;
+            this.dominant = dominant;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof MapKey other)) return false;
+            return entries == other.entries && source == other.source && dest == other.dest && dominant == other.dominant;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(entries), source, dest, dominant);
+        }
+    }
+}
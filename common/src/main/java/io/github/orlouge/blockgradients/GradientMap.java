@@ -1,204 +1,146 @@
 package io.github.orlouge.blockgradients;
 
-import net.minecraft.util.math.Vec3d;
-
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class GradientMap {
-    public static final double MAX_DIFF = 0.15;
-    private static KDTree<BlockColorEntry> dominantNeighborTree = null, averageNeighborTree = null;
-    private static Map<BlockColorEntry, Collection<BlockColorEntry>> dominantNeighborMap = null, averageNeighborMap = null;
+    private final List<BlockColorEntry> entries;
+    // Dropped once every row is generated
+    private volatile GradientEngine engine;
+    private final AtomicBoolean generating = new AtomicBoolean(false);
+    // Rows are appended by the worker only; the volatile count publishes them to the render thread.
+    private Row[] rows = new Row[16];
+    private volatile int rowCount = 0, requestedRows = 0;
+    private volatile boolean finished = false, cancelled = false;
+    private volatile Runnable growthListener = null;
+
+    // A null engine gives a map without rows.
+    public GradientMap(List<BlockColorEntry> entries, GradientEngine engine) {
+        this.entries = entries;
+        this.engine = engine;
+    }
+
+    public static CompletableFuture<GradientMap> buildAsync(List<BlockColorEntry> entries, BlockColorEntry source, BlockColorEntry dest, boolean dominant) {
+        return CompletableFuture.supplyAsync(() -> build(entries, source, dest, dominant), Workers.EXECUTOR);
+    }
+
+    public static GradientMap build(List<BlockColorEntry> entries, BlockColorEntry source, BlockColorEntry dest, boolean dominant) {
+        return new GradientMap(entries, GradientCache.getIndex(entries).engine(source.id, dest.id, dominant));
+    }
 
-    private final List<DAG.Node<BlockColorEntry>> nodes, sortedNodes;
-    private final DAG.Node<BlockColorEntry> source, dest;
-    private final int maxId;
-    private final List<List<DAG.Node<BlockColorEntry>>> paths = new ArrayList<>();
-    private boolean finished = false;
-    private Vec3d lastMiddleColor = new Vec3d(-1, -1, -1);
+    // Non-blocking: rows that are not generated yet are requested from the worker and returned empty meanwhile.
+    public Row getRow(int y) {
+        if (y < 0) return Row.EMPTY;
+        if (y >= rowCount) {
+            requestRows(y);
+            return Row.EMPTY;
+        }
+        return this.rows[y];
+    }
 
+    // Viewport queries along either axis, for cells of the given size with cell 0 starting at origin: the first cell
+    // and the end (exclusive) of the cells that intersect [0, viewSize).
+    public static int firstVisibleCell(int origin, int cellSize) {
+        return Math.max(0, Math.floorDiv(-origin, cellSize));
+    }
 
-    public GradientMap(List<DAG.Node<BlockColorEntry>> nodes, List<DAG.Node<BlockColorEntry>> sortedNodes, DAG.Node<BlockColorEntry> source, DAG.Node<BlockColorEntry> dest, int maxId, Vec3d initialMiddleColor) {
-        this.nodes = nodes;
-        this.sortedNodes = sortedNodes;
-        this.source = source;
-        this.dest = dest;
-        this.maxId = maxId;
-        this.lastMiddleColor = initialMiddleColor;
+    public static int visibleCellEnd(int origin, int cellSize, int viewSize) {
+        return Math.max(0, Math.floorDiv(viewSize - origin + cellSize - 1, cellSize));
     }
 
-    public static GradientMap build(List<BlockColorEntry> entries, BlockColorEntry source, BlockColorEntry dest, boolean dominant) {
-        List<DAG.Node<BlockColorEntry>> nodes = entries.stream().map(e -> new DAG.Node<>(e.id, e)).toList();
-        if (!DAG.isDAG(nodes, entries.size() - 1)) {
-            return new GradientMap(Collections.emptyList(), Collections.emptyList(), null, null, 0, new Vec3d(-1, -1, -1));
+    public boolean isRowPending(int y) {
+        return y >= 0 && y >= rowCount && !finished;
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    public int getGeneratedRows() {
+        return rowCount;
+    }
+
+    // Makes sure rows up to lastRow are generated in the background.
+    public void requestRows(int lastRow) {
+        if (lastRow > requestedRows) requestedRows = lastRow;
+        cancelled = false;
+        if (!finished && rowCount <= requestedRows && generating.compareAndSet(false, true)) {
+            Workers.EXECUTOR.execute(this::generateRows);
         }
-        DAG.Node<BlockColorEntry> sourceNode = nodes.get(source.id);
-        DAG.Node<BlockColorEntry> destNode = nodes.get(dest.id);
-        Vec3d destColor = dominant ? dest.dominantFeatures() : dest.averageFeatures();
-        Vec3d sourceColor = dominant ? source.dominantFeatures() : source.averageFeatures();
-        for (BlockColorEntry entry : entries) {
-            if (dominant && !entry.hasDominant) continue;
-            Vec3d entryColor = dominant ? entry.dominantFeatures() : entry.averageFeatures();
-
-            Collection<BlockColorEntry> neighbors = getNeighborMap(entries, dominant).get(entry);
-
-            for (BlockColorEntry neighbor : neighbors) {
-                if (neighbor == entry) continue;
-                Vec3d neighborColor = dominant ? neighbor.dominantFeatures() : neighbor.averageFeatures();
-
-                Vec3d sourceToDest = destColor.subtract(sourceColor);
-                Vec3d entryToNeighbor = neighborColor.subtract(entryColor);
-                double cosine = sourceToDest.dotProduct(entryToNeighbor) / (sourceToDest.length() * entryToNeighbor.length() + 1e-10);
-                double distance = entryColor.distanceTo(neighborColor);
-                if (cosine > 0.0001 && distance > 0.04) {
-                    double weight = 0.1 * (Math.exp(distance * 30) - 1);
-                    weight += 0.1 * (Math.exp(15 * (1 - cosine)) - 1);
-                    nodes.get(entry.id).edges.put(neighbor, new DAG.Edge<>(nodes.get(neighbor.id), weight));
+    }
+
+    // Called on the worker whenever it stops generating rows, so after every batch of new rows.
+    public void setGrowthListener(Runnable growthListener) {
+        this.growthListener = growthListener;
+    }
+
+    // Stops the worker after the row it is currently generating. Generated rows are kept, and a later request resumes.
+    public void cancel() {
+        cancelled = true;
+    }
+
+    private void generateRows() {
+        do {
+            try {
+                while (!finished && !cancelled && rowCount <= requestedRows) {
+                    generatePath();
                 }
+            } catch (RuntimeException e) {
+                finished = true;
+                e.printStackTrace();
+            } finally {
+                generating.set(false);
             }
+        } while (!finished && !cancelled && rowCount <= requestedRows && generating.compareAndSet(false, true));
+        Runnable listener = growthListener;
+        if (listener != null) listener.run();
+    }
+
+    // Approximate number of bytes held by the map, which shrinks when the last row is generated.
+    public long memorySize() {
+        GradientEngine engine = this.engine;
+        long size = engine != null ? engine.memorySize() : 0;
+        for (int y = 0, count = rowCount; y < count; y++) {
+            size += 32 + 4L * rows[y].width();
         }
-        sourceNode.edges.remove(dest);
-        List<DAG.Node<BlockColorEntry>> sortedNodes = DAG.toposort(nodes, entries.size() - 1);
-        Vec3d initialColor = sourceColor.add(destColor).multiply(-0.5).add(new Vec3d(0.5, 0.5, 0.5));
-        return new GradientMap(
-                nodes, sortedNodes, sourceNode, destNode, entries.size() - 1,
-                new Vec3d(initialColor.getX() % 1, initialColor.getY() % 1, initialColor.getZ() % 1)
-                );
-    }
-
-    public Collection<Cell> getRow(int y) {
-        if (y < 0) return Collections.emptyList();
-        while (!finished && y >= paths.size()) {
-            generatePath();
-        }
-        if (y >= paths.size()) {
-            return Collections.emptyList();
-        }
-        List<DAG.Node<BlockColorEntry>> path = this.paths.get(y);
-        LinkedList<Cell> cells = new LinkedList<>();
-        cells.add(new Cell(this.source.element, 0, y));
-        for (int x = 1; x < path.size() + 1; x++) {
-            cells.add(new Cell(path.get(x - 1).element, x, y));
-        }
-        cells.add(new Cell(this.dest.element, path.size() + 1, y));
-        return cells;
+        return size + 4L * rows.length;
     }
 
     private void generatePath() {
-        if (source == null || dest == null) {
-            finished = true;
-            return;
-        }
-        if (finished) return;
-        DAG.Node<BlockColorEntry> sourceNode = nodes.get(this.source.id);
-        List<DAG.Node<BlockColorEntry>> path;
-        path = DAG.shortestPath(
-            this.sortedNodes, this.source.id, this.dest.id, this.maxId,
-            (node, edge) -> edge.weight * Math.max(1, Math.max(
-                Math.exp(10 * (0.15 - node.element.averageColor().distanceTo(lastMiddleColor))),
-                Math.exp(10 * (0.15 - edge.dest.element.averageColor().distanceTo(lastMiddleColor)))
-            ))
-        );
-        if (path.size() == 0) {
+        int[] ids = engine != null ? engine.nextPath() : null;
+        if (ids == null) {
+            engine = null;
             finished = true;
             return;
         }
-        Vec3d middleColor = path.get(path.size() / 2).element.averageColor();
-        if (path.size() % 2 == 0 && path.size() / 2 > 1) {
-            middleColor.add(path.get(path.size() / 2 + 1).element.averageColor());
-            middleColor.multiply(0.5);
-        }
-        lastMiddleColor = lastMiddleColor.multiply(0.95).add(middleColor.multiply(0.05));
-        DAG.Node<BlockColorEntry> shortestEdgeSourceNode = sourceNode;
-        DAG.Edge<BlockColorEntry> shortestEdge = sourceNode.edges.get(path.get(0).element);
-        shortestEdge.weight *= 50;
-        for (int d = 1; d < 4; d++) {
-            for (int i = 0; i < path.size() - d; i++) {
-                DAG.Node<BlockColorEntry> node = nodes.get(path.get(i).id);
-                DAG.Edge<BlockColorEntry> edge = node.edges.get(path.get(i + d).element);
-                if (edge == null) continue;
-                if (d == 1 && edge.weight < shortestEdge.weight) {
-                    shortestEdge = edge;
-                    shortestEdgeSourceNode = node;
-                }
-                edge.weight *= 1 + 50d / d;
-            }
-        }
-        DAG.Edge<BlockColorEntry> lastEdge = nodes.get(path.get(path.size() - 1).id).edges.get(dest.element);
-        if (lastEdge != null) {
-            lastEdge.weight *= 50;
-            if (lastEdge.weight < shortestEdge.weight) {
-                shortestEdge = lastEdge;
-                shortestEdgeSourceNode = nodes.get(path.size() - 1);
-            }
-        }
-        shortestEdgeSourceNode.edges.remove(shortestEdge.dest.element);
-        this.paths.add(path);
+        if (rowCount == rows.length) rows = Arrays.copyOf(rows, 2 * rowCount);
+        rows[rowCount] = new Row(entries, ids);
+        rowCount++;
     }
 
-    private static KDTree<BlockColorEntry> getNeighborTree(List<BlockColorEntry> entries, boolean dominant) {
-        if (dominant) {
-            if (dominantNeighborTree == null) {
-                dominantNeighborTree = new KDTree<>(entries.stream().filter(e -> e.hasDominant).toList(), 3, BlockColorEntry::dominantColor);
-            }
-            return dominantNeighborTree;
-        } else {
-            if (averageNeighborTree == null) {
-                averageNeighborTree = new KDTree<>(entries, 3, BlockColorEntry::averageColor);
-            }
-            return averageNeighborTree;
+    // One generated row: the entry ids of the source, the path and the destination, indexed by column.
+    public static class Row {
+        public static final Row EMPTY = new Row(List.of(), new int[0]);
+
+        private final List<BlockColorEntry> entries;
+        private final int[] ids;
+
+        private Row(List<BlockColorEntry> entries, int[] ids) {
+            this.entries = entries;
+            this.ids = ids;
         }
-    }
 
-    private static Map<BlockColorEntry, Collection<BlockColorEntry>> getNeighborMap(List<BlockColorEntry> entries, boolean dominant) {
-        KDTree<BlockColorEntry> neighborTree = getNeighborTree(entries, dominant);
-        if (dominant) {
-            if (dominantNeighborMap == null) {
-                dominantNeighborMap = new HashMap<>();
-                for (BlockColorEntry entry : entries) {
-                    if (!entry.hasDominant) continue;
-                    Vec3d entryColor = entry.dominantFeatures();
-
-                    double maxDiff = MAX_DIFF * 1.2;
-                    Vec3d min = entryColor.subtract(maxDiff, maxDiff, maxDiff), max = entryColor.add(maxDiff, maxDiff, maxDiff);
-                    Collection<BlockColorEntry> neighbors = neighborTree.rangeSearch(
-                            entry,
-                            new double[]{min.getX(), min.getY(), min.getZ()},
-                            new double[]{max.getX(), max.getY(), max.getZ()},
-                            3,
-                            BlockColorEntry::dominantColor
-                    );
-                    dominantNeighborMap.put(entry, neighbors);
-                }
-            }
-            return dominantNeighborMap;
-        } else {
-            if (averageNeighborMap == null) {
-                averageNeighborMap = new HashMap<>();
-                for (BlockColorEntry entry : entries) {
-                    Vec3d entryColor = entry.dominantFeatures();
-                    Vec3d min = entryColor.subtract(MAX_DIFF, MAX_DIFF, MAX_DIFF), max = entryColor.add(MAX_DIFF, MAX_DIFF, MAX_DIFF);
-                    Collection<BlockColorEntry> neighbors = neighborTree.rangeSearch(
-                            entry,
-                            new double[]{min.getX(), min.getY(), min.getZ()},
-                            new double[]{max.getX(), max.getY(), max.getZ()},
-                            3,
-                            BlockColorEntry::averageColor
-                    );
-                    averageNeighborMap.put(entry, neighbors);
-                }
-            }
-            return averageNeighborMap;
+        public int width() {
+            return ids.length;
         }
-    }
 
-    public static class Cell {
-        public final BlockColorEntry entry;
-        public final int cellX, cellY;
+        public int entryId(int column) {
+            return ids[column];
+        }
 
-        public Cell(BlockColorEntry entry, int cellX, int cellY) {
-            this.entry = entry;
-            this.cellX = cellX;
-            this.cellY = cellY;
+        public BlockColorEntry entry(int column) {
+            return entries.get(ids[column]);
         }
     }
 }
@@ -0,0 +1,34 @@
+package io.github.orlouge.blockgradients;
+
+import net.minecraft.client.texture.NativeImage;
+import net.minecraft.util.math.Vec3d;
+import org.lwjgl.system.MemoryUtil;
+
+public class SpriteStats {
+    public final Vec3d average, median, stddev;
+
+    public SpriteStats(Vec3d average, Vec3d median, Vec3d stddev) {
+        this.average = average;
+        this.median = median;
+        this.stddev = stddev;
+    }
+
+    // Pixels of RGBA images as returned by NativeImage.getColor: red in the lowest byte, then green, blue and alpha.
+    // getColor reads the native buffer as native-order ints, so the whole buffer is copied the same way at once.
+    public static int[] copyPixels(NativeImage image) {
+        if (image.getFormat() != NativeImage.Format.RGBA) throw new IllegalArgumentException("Not an RGBA image");
+        if (image.pointer == 0) throw new IllegalStateException("Image is not allocated");
+        int[] pixels = new int[image.getWidth() * image.getHeight()];
+        MemoryUtil.memIntBuffer(image.pointer, pixels.length).get(pixels);
+        return pixels;
+    }
+
+    public static SpriteStats compute(int[] pixels) {
+        ColorStatistics statistics = ColorStatistics.compute(pixels);
+        return new SpriteStats(vector(statistics.average), vector(statistics.median), vector(statistics.stddev));
+    }
+
+    private static Vec3d vector(double[] channels) {
+        return new Vec3d(channels[0], channels[1], channels[2]);
+    }
+}
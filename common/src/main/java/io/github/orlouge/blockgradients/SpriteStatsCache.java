@@ -0,0 +1,132 @@
+package io.github.orlouge.blockgradients;
+
+import net.minecraft.util.math.Vec3d;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Statistics of the sprites analyzed in previous sessions, keyed by sprite id. Every record also stores a hash of
+ * the pixels it was computed from, so a record is only used while the texture is unchanged.
+ * File layout: magic, version, record count, then per record the UTF-8 id (short length prefix), the content hash
+ * and the average, median and stddev vectors as 9 doubles.
+ */
+public class SpriteStatsCache {
+    private static final String CACHE_FNAME = "blockgradients-sprite-stats.bin";
+    private static final int MAGIC = 0x42475353, VERSION = 1;
+
+    private final Path path;
+    private final Map<String, Record> loaded, used = new ConcurrentHashMap<>();
+    private volatile boolean dirty = false;
+
+    private SpriteStatsCache(Path path, Map<String, Record> loaded) {
+        this.path = path;
+        this.loaded = loaded;
+    }
+
+    public static SpriteStatsCache load() {
+        Path path = ExampleExpectPlatform.getConfigDirectory().resolve(CACHE_FNAME);
+        Map<String, Record> records = new HashMap<>();
+        if (Files.isRegularFile(path)) {
+            // Read into the heap rather than mapped: every record is decoded right away, and a mapping would keep
+            // the file open until garbage collection, which prevents save from replacing it on Windows.
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+                if (buffer.getInt() == MAGIC && buffer.getInt() == VERSION) {
+                    for (int i = buffer.getInt(); i > 0; i--) {
+                        byte[] id = new byte[buffer.getShort() & 0xFFFF];
+                        buffer.get(id);
+                        long hash = buffer.getLong();
+                        records.put(new String(id, StandardCharsets.UTF_8), new Record(hash, new SpriteStats(
+                                new Vec3d(buffer.getDouble(), buffer.getDouble(), buffer.getDouble()),
+                                new Vec3d(buffer.getDouble(), buffer.getDouble(), buffer.getDouble()),
+                                new Vec3d(buffer.getDouble(), buffer.getDouble(), buffer.getDouble())
+                        )));
+                    }
+                }
+            } catch (IOException | BufferUnderflowException e) {
+                // A truncated or unreadable cache is rebuilt from scratch
+                e.printStackTrace();
+                records.clear();
+            }
+        }
+        return new SpriteStatsCache(path, records);
+    }
+
+    // Safe to call concurrently for different sprites.
+    public SpriteStats get(String id, int[] pixels, int width, int height) {
+        long hash = contentHash(pixels, width, height);
+        Record record = used.get(id);
+        if (record == null || record.hash != hash) record = loaded.get(id);
+        if (record == null || record.hash != hash) {
+            record = new Record(hash, SpriteStats.compute(pixels));
+            dirty = true;
+        }
+        used.put(id, record);
+        return record.stats;
+    }
+
+    // Rewrites the file with the records used in this session, which also drops the ones of removed textures.
+    public void save() {
+        if (!dirty && used.keySet().equals(loaded.keySet())) return;
+        int size = 12;
+        Map<byte[], Record> encoded = new HashMap<>();
+        for (Map.Entry<String, Record> entry : used.entrySet()) {
+            byte[] id = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            if (id.length > 0xFFFF) continue;
+            encoded.put(id, entry.getValue());
+            size += 2 + id.length + 8 + 9 * 8;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(encoded.size());
+        for (Map.Entry<byte[], Record> entry : encoded.entrySet()) {
+            SpriteStats stats = entry.getValue().stats;
+            buffer.putShort((short) entry.getKey().length).put(entry.getKey()).putLong(entry.getValue().hash);
+            for (Vec3d vec : new Vec3d[]{stats.average, stats.median, stats.stddev}) {
+                buffer.putDouble(vec.getX()).putDouble(vec.getY()).putDouble(vec.getZ());
+            }
+        }
+        try {
+            Path temp = path.resolveSibling(CACHE_FNAME + ".tmp");
+            Files.write(temp, buffer.array());
+            try {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+            dirty = false;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // 64-bit FNV-1a over the dimensions and the packed pixels.
+    public static long contentHash(int[] pixels, int width, int height) {
+        long hash = 0xcbf29ce484222325L;
+        hash = (hash ^ width) * 0x100000001b3L;
+        hash = (hash ^ height) * 0x100000001b3L;
+        for (int pixel : pixels) {
+            hash = (hash ^ pixel) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static class Record {
+        public final long hash;
+        public final SpriteStats stats;
+
+        public Record(long hash, SpriteStats stats) {
+            this.hash = hash;
+            this.stats = stats;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package io.github.orlouge.blockgradients;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class Workers {
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    public static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "BlockGradients Worker-" + THREAD_COUNT.incrementAndGet());
+        thread.setDaemon(true);
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        return thread;
+    });
+}
@@ -0,0 +1,178 @@
+package io.github.orlouge.blockgradients;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+ * Generates the gradient rows of many source/dest pairs without the game, from a dataset exported by the mod (see
+ * ColorDataset). Pairs are read one per line as "source dest", each an entry id or a block id, and are generated in
+ * parallel; results are written in pair order as soon as they are ready, so only a few pairs are held in memory.
+ *
+ * JSON lines output: {"source":1,"dest":2,"rows":[[1,...,2],...]} per pair, with entry ids.
+ * Binary output: magic, version and pair count, then per pair the source, dest and row count, and per row its
+ * length and ids. All values are big-endian ints.
+ */
+public class BatchGradients {
+    private static final int MAGIC = 0x42475348, VERSION = 1;
+    private static final String USAGE =
+            "Usage: BatchGradients <dataset> <pairs> <output> [--rows N] [--dominant] [--color-space SPACE] [--grid] [--buckets N] [--binary] [--threads N]";
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        List<String> files = new ArrayList<>();
+        int rows = 64, threads = Runtime.getRuntime().availableProcessors(), buckets = 0;
+        boolean dominant = false, grid = false, binary = false;
+        ColorSpace colorSpace = ColorSpace.SRGB;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--rows" -> rows = Integer.parseInt(args[++i]);
+                    case "--threads" -> threads = Integer.parseInt(args[++i]);
+                    case "--buckets" -> buckets = Integer.parseInt(args[++i]);
+                    case "--dominant" -> dominant = true;
+                    case "--color-space" -> colorSpace = ColorSpace.valueOf(args[++i].toUpperCase(Locale.ROOT));
+                    case "--grid" -> grid = true;
+                    case "--binary" -> binary = true;
+                    default -> files.add(args[i]);
+                }
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            files.clear();
+        }
+        if (files.size() != 3 || rows < 1 || threads < 1 || buckets < 0 || buckets > DirectionBuckets.MAX_COUNT) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        ColorDataset dataset = ColorDataset.load(Path.of(files.get(0)));
+        List<int[]> pairs = new ArrayList<>();
+        List<String> lines = Files.readAllLines(Path.of(files.get(1)), StandardCharsets.UTF_8);
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            String[] keys = line.split("\\s+");
+            int source = keys.length == 2 ? dataset.find(keys[0]) : -1, dest = keys.length == 2 ? dataset.find(keys[1]) : -1;
+            if (source < 0 || dest < 0 || source == dest) {
+                System.err.println(files.get(1) + ":" + (i + 1) + ": unknown or invalid pair: " + line);
+                System.exit(1);
+            }
+            pairs.add(new int[]{source, dest});
+        }
+
+        GradientIndex index = dataset.index(colorSpace, grid, buckets);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        try (OutputStream output = Files.newOutputStream(Path.of(files.get(2)))) {
+            SheetWriter writer = binary ? new BinarySheetWriter(output, pairs.size()) : new JsonSheetWriter(output);
+            ArrayDeque<Future<int[][]>> pending = new ArrayDeque<>();
+            int written = 0;
+            for (int[] pair : pairs) {
+                if (pending.size() >= 2 * threads) {
+                    int[] done = pairs.get(written++);
+                    writer.write(done[0], done[1], pending.poll().get());
+                }
+                int maxRows = rows;
+                boolean dominantMap = dominant;
+                pending.add(executor.submit(() -> generate(index, pair[0], pair[1], dominantMap, maxRows)));
+            }
+            while (!pending.isEmpty()) {
+                int[] done = pairs.get(written++);
+                writer.write(done[0], done[1], pending.poll().get());
+            }
+            writer.finish();
+        } catch (ExecutionException e) {
+            throw new IOException("Gradient generation failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        System.err.printf("%d pairs in %d ms%n", pairs.size(), (System.nanoTime() - start) / 1000000);
+    }
+
+    // The rows of one map, stopping early when source and dest get disconnected.
+    public static int[][] generate(GradientIndex index, int source, int dest, boolean dominant, int maxRows) {
+        GradientEngine engine = index.engine(source, dest, dominant);
+        List<int[]> rows = new ArrayList<>();
+        while (engine != null && rows.size() < maxRows) {
+            int[] row = engine.nextPath();
+            if (row == null) break;
+            rows.add(row);
+        }
+        return rows.toArray(new int[0][]);
+    }
+
+    private interface SheetWriter {
+        void write(int source, int dest, int[][] rows) throws IOException;
+
+        void finish() throws IOException;
+    }
+
+    private static class JsonSheetWriter implements SheetWriter {
+        private final Writer writer;
+
+        public JsonSheetWriter(OutputStream output) {
+            this.writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8), 1 << 16);
+        }
+
+        @Override
+        public void write(int source, int dest, int[][] rows) throws IOException {
+            StringBuilder line = new StringBuilder("{\"source\":").append(source).append(",\"dest\":").append(dest).append(",\"rows\":[");
+            for (int r = 0; r < rows.length; r++) {
+                if (r > 0) line.append(',');
+                line.append('[');
+                for (int i = 0; i < rows[r].length; i++) {
+                    if (i > 0) line.append(',');
+                    line.append(rows[r][i]);
+                }
+                line.append(']');
+            }
+            writer.write(line.append("]}\n").toString());
+        }
+
+        @Override
+        public void finish() throws IOException {
+            writer.flush();
+        }
+    }
+
+    private static class BinarySheetWriter implements SheetWriter {
+        private final DataOutputStream output;
+
+        public BinarySheetWriter(OutputStream output, int pairCount) throws IOException {
+            this.output = new DataOutputStream(new BufferedOutputStream(output, 1 << 16));
+            this.output.writeInt(MAGIC);
+            this.output.writeInt(VERSION);
+            this.output.writeInt(pairCount);
+        }
+
+        @Override
+        public void write(int source, int dest, int[][] rows) throws IOException {
+            output.writeInt(source);
+            output.writeInt(dest);
+            output.writeInt(rows.length);
+            for (int[] row : rows) {
+                output.writeInt(row.length);
+                for (int id : row) output.writeInt(id);
+            }
+        }
+
+        @Override
+        public void finish() throws IOException {
+            output.flush();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package io.github.orlouge.blockgradients;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/*
+ * The color entries exported from the game, for generating gradients without it. Text file with one entry per line,
+ * in id order, with tab separated fields: id, blocks, average, median and stddev. Blocks are comma separated block
+ * ids, each optionally followed by its faces in brackets (minecraft:oak_log[down,up]); colors are 3 space separated
+ * components in [0, 1]. Lines starting with # are comments.
+ */
+public class ColorDataset {
+    public static final String HEADER = "# id\tblocks\taverage\tmedian\tstddev";
+
+    private final String[] blocks;
+    private final float[] averageColors, dominantColors;
+    private final boolean[] hasDominant;
+    private final Map<String, Integer> blockIds = new HashMap<>();
+
+    private ColorDataset(List<String> blocks, List<double[]> colors) {
+        int size = blocks.size();
+        this.blocks = blocks.toArray(new String[0]);
+        this.averageColors = new float[3 * size];
+        this.dominantColors = new float[3 * size];
+        this.hasDominant = new boolean[size];
+        for (int id = 0; id < size; id++) {
+            double[] entry = colors.get(id);
+            for (int dim = 0; dim < 3; dim++) {
+                averageColors[3 * id + dim] = (float) entry[dim];
+                dominantColors[3 * id + dim] = (float) dominantColor(entry[dim], entry[3 + dim]);
+            }
+            hasDominant[id] = hasDominant(entry[0], entry[1], entry[2], entry[3], entry[4], entry[5], entry[6], entry[7], entry[8]);
+            for (String block : splitBlocks(this.blocks[id])) {
+                int faces = block.indexOf('[');
+                blockIds.putIfAbsent(faces < 0 ? block : block.substring(0, faces), id);
+            }
+        }
+    }
+
+    // Face lists are comma separated too, so blocks are only split on commas outside of brackets.
+    static List<String> splitBlocks(String blocks) {
+        List<String> result = new ArrayList<>();
+        int start = 0, depth = 0;
+        for (int i = 0; i < blocks.length(); i++) {
+            char c = blocks.charAt(i);
+            if (c == '[') {
+                depth++;
+            } else if (c == ']') {
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                result.add(blocks.substring(start, i));
+                start = i + 1;
+            }
+        }
+        result.add(blocks.substring(start));
+        return result;
+    }
+
+    public static ColorDataset load(Path path) throws IOException {
+        List<String> blocks = new ArrayList<>();
+        List<double[]> colors = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank() || line.startsWith("#")) continue;
+                String[] fields = line.split("\t");
+                if (fields.length != 5 || Integer.parseInt(fields[0]) != blocks.size()) {
+                    throw new IOException(path + ":" + lineNumber + ": malformed entry");
+                }
+                double[] entry = new double[9];
+                for (int field = 0; field < 3; field++) {
+                    String[] components = fields[2 + field].trim().split(" +");
+                    if (components.length != 3) throw new IOException(path + ":" + lineNumber + ": malformed color");
+                    for (int dim = 0; dim < 3; dim++) {
+                        entry[3 * field + dim] = Double.parseDouble(components[dim]);
+                    }
+                }
+                blocks.add(fields[1]);
+                colors.add(entry);
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException(path + ": " + e.getMessage(), e);
+        }
+        return new ColorDataset(blocks, colors);
+    }
+
+    public static void writeEntry(Writer writer, int id, String blocks, double[] average, double[] median, double[] stddev) throws IOException {
+        writer.write(id + "\t" + blocks + "\t" + color(average) + "\t" + color(median) + "\t" + color(stddev) + "\n");
+    }
+
+    // Doubles are written in full so that a loaded dataset gives the same gradients as the game.
+    private static String color(double[] color) {
+        return String.format(Locale.ROOT, "%s %s %s", color[0], color[1], color[2]);
+    }
+
+    // Halfway between the average and the median, so a few outlier pixels do not move it much
+    public static double dominantColor(double average, double median) {
+        return (average + median) * 0.5;
+    }
+
+    // Textures close enough to a single color: low deviation, and median and average in the same direction.
+    public static boolean hasDominant(double averageR, double averageG, double averageB, double medianR, double medianG, double medianB, double stddevR, double stddevG, double stddevB) {
+        double averageLength = Math.sqrt(averageR * averageR + averageG * averageG + averageB * averageB);
+        double medianLength = Math.sqrt(medianR * medianR + medianG * medianG + medianB * medianB);
+        if (medianLength == 0 || averageLength == 0) return true;
+        double stddevLength = Math.sqrt(stddevR * stddevR + stddevG * stddevG + stddevB * stddevB);
+        double dot = medianR * averageR + medianG * averageG + medianB * averageB;
+        return stddevLength < 0.25 && dot / (medianLength * averageLength) > 0.99;
+    }
+
+    public int size() {
+        return blocks.length;
+    }
+
+    public String blocks(int id) {
+        return blocks[id];
+    }
+
+    // An entry id, or the id of the first entry with the given block; -1 if there is none.
+    public int find(String key) {
+        try {
+            int id = Integer.parseInt(key);
+            return id >= 0 && id < size() ? id : -1;
+        } catch (NumberFormatException e) {
+            return blockIds.getOrDefault(key, -1);
+        }
+    }
+
+    public GradientIndex index(ColorSpace colorSpace, boolean gridNeighbors, int directionBuckets) {
+        return new GradientIndex(averageColors, dominantColors, hasDominant, colorSpace, gridNeighbors, directionBuckets);
+    }
+}
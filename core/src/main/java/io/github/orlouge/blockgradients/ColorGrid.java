@@ -0,0 +1,140 @@
+package io.github.orlouge.blockgradients;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/*
+ * Uniform grid over 3-dimensional points with cells as wide as the search radius, so every pair of points within
+ * the radius lies in the same or in adjacent cells. Points are bucketed with a counting sort: the points of cell c
+ * are cellPoints[cellStart[c]] .. cellPoints[cellStart[c + 1] - 1].
+ */
+public class ColorGrid {
+    private static final int CHUNK_CELLS = 512;
+
+    private final float[] coords;
+    private final float radius;
+    private final float[] origin = new float[3];
+    private final int[] cells = new int[3];
+    private final int[] cellStart, cellPoints;
+
+    public ColorGrid(float[] coords, int[] ids, float radius) {
+        this.coords = coords;
+        this.radius = radius;
+        float[] max = new float[3];
+        Arrays.fill(origin, Float.POSITIVE_INFINITY);
+        Arrays.fill(max, Float.NEGATIVE_INFINITY);
+        for (int id : ids) {
+            for (int dim = 0; dim < 3; dim++) {
+                origin[dim] = Math.min(origin[dim], coords[3 * id + dim]);
+                max[dim] = Math.max(max[dim], coords[3 * id + dim]);
+            }
+        }
+        for (int dim = 0; dim < 3; dim++) {
+            cells[dim] = ids.length == 0 ? 1 : (int) ((max[dim] - origin[dim]) / radius) + 1;
+        }
+        this.cellStart = new int[cells[0] * cells[1] * cells[2] + 1];
+        this.cellPoints = new int[ids.length];
+        for (int id : ids) {
+            cellStart[cellOf(id) + 1]++;
+        }
+        for (int c = 0; c < cellStart.length - 1; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        int[] fill = Arrays.copyOf(cellStart, cellStart.length - 1);
+        for (int id : ids) {
+            cellPoints[fill[cellOf(id)]++] = id;
+        }
+    }
+
+    // Finds every pair of points within the radius, each pair being tested once, and stores it in both neighborhoods.
+    public NeighborGraph neighborGraph(int nodeCount) {
+        int cellCount = cellStart.length - 1;
+        int chunks = Math.max(1, Math.min((cellCount + CHUNK_CELLS - 1) / CHUNK_CELLS, 4 * ForkJoinPool.getCommonPoolParallelism()));
+        List<PairBuffer> chunkPairs = IntStream.range(0, chunks).parallel().mapToObj(chunk -> {
+            PairBuffer pairs = new PairBuffer();
+            for (int c = chunk * cellCount / chunks, end = (chunk + 1) * cellCount / chunks; c < end; c++) {
+                joinCell(c, pairs);
+            }
+            return pairs;
+        }).toList();
+
+        int[] offsets = new int[nodeCount + 1];
+        for (PairBuffer pairs : chunkPairs) {
+            for (int i = 0; i < pairs.size; i++) {
+                offsets[pairs.a[i] + 1]++;
+                offsets[pairs.b[i] + 1]++;
+            }
+        }
+        for (int id = 0; id < nodeCount; id++) {
+            offsets[id + 1] += offsets[id];
+        }
+        int[] fill = Arrays.copyOf(offsets, nodeCount), neighborIds = new int[offsets[nodeCount]];
+        float[] distances = new float[neighborIds.length];
+        for (PairBuffer pairs : chunkPairs) {
+            for (int i = 0; i < pairs.size; i++) {
+                int a = pairs.a[i], b = pairs.b[i];
+                neighborIds[fill[a]] = b;
+                distances[fill[a]++] = pairs.distance[i];
+                neighborIds[fill[b]] = a;
+                distances[fill[b]++] = pairs.distance[i];
+            }
+        }
+        return new NeighborGraph(offsets, neighborIds, distances);
+    }
+
+    private int cellOf(int id) {
+        int cx = cellCoordinate(id, 0), cy = cellCoordinate(id, 1), cz = cellCoordinate(id, 2);
+        return (cx * cells[1] + cy) * cells[2] + cz;
+    }
+
+    private int cellCoordinate(int id, int dimension) {
+        return Math.min(cells[dimension] - 1, (int) ((coords[3 * id + dimension] - origin[dimension]) / radius));
+    }
+
+    private void joinCell(int cell, PairBuffer pairs) {
+        int cz = cell % cells[2], cy = (cell / cells[2]) % cells[1], cx = cell / (cells[1] * cells[2]);
+        float squaredRadius = radius * radius;
+        for (int dx = 0; dx <= 1; dx++) {
+            for (int dy = dx == 0 ? 0 : -1; dy <= 1; dy++) {
+                for (int dz = dx == 0 && dy == 0 ? 0 : -1; dz <= 1; dz++) {
+                    int nx = cx + dx, ny = cy + dy, nz = cz + dz;
+                    if (nx >= cells[0] || ny < 0 || ny >= cells[1] || nz < 0 || nz >= cells[2]) continue;
+                    int other = (nx * cells[1] + ny) * cells[2] + nz;
+                    boolean same = other == cell;
+                    for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+                        int a = cellPoints[i];
+                        float ax = coords[3 * a], ay = coords[3 * a + 1], az = coords[3 * a + 2];
+                        for (int j = same ? i + 1 : cellStart[other]; j < cellStart[other + 1]; j++) {
+                            int b = cellPoints[j];
+                            float ddx = coords[3 * b] - ax, ddy = coords[3 * b + 1] - ay, ddz = coords[3 * b + 2] - az;
+                            float squaredDistance = ddx * ddx + ddy * ddy + ddz * ddz;
+                            if (squaredDistance <= squaredRadius) {
+                                pairs.add(a, b, (float) Math.sqrt(squaredDistance));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static class PairBuffer {
+        private int[] a = new int[256], b = new int[256];
+        private float[] distance = new float[256];
+        private int size = 0;
+
+        private void add(int first, int second, float pairDistance) {
+            if (size == a.length) {
+                a = Arrays.copyOf(a, 2 * size);
+                b = Arrays.copyOf(b, 2 * size);
+                distance = Arrays.copyOf(distance, 2 * size);
+            }
+            a[size] = first;
+            b[size] = second;
+            distance[size] = pairDistance;
+            size++;
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package io.github.orlouge.blockgradients;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+/*
+ * KD tree over 3-dimensional points identified by int ids. The point of an id is read from a flat
+ * coordinate array at [3 * id, 3 * id + 2], and the tree is stored implicitly in a permuted id array:
+ * the node of the range [lo, hi) is the id at (lo + hi) / 2, its subtrees are the two halves.
+ */
+public class ColorKDTree {
+    public static final int DIMENSIONS = 3;
+    private static final int PARALLEL_THRESHOLD = 4096;
+    private static final int BATCH_CHUNK_SIZE = 256;
+
+    private final float[] coords;
+    private final int[] nodes;
+
+    public ColorKDTree(float[] coords, int[] ids) {
+        this(coords, ids, true);
+    }
+
+    public ColorKDTree(float[] coords, int[] ids, boolean parallel) {
+        this.coords = coords;
+        this.nodes = ids.clone();
+        if (parallel && nodes.length >= PARALLEL_THRESHOLD) {
+            ForkJoinPool.commonPool().invoke(new BuildTask(0, nodes.length, 0));
+        } else {
+            build(0, nodes.length, 0);
+        }
+    }
+
+    public int size() {
+        return nodes.length;
+    }
+
+    public int nearest(float x, float y, float z) {
+        return nearest(0, nodes.length, 0, x, y, z, -1);
+    }
+
+    public int[] kNearest(float x, float y, float z, int k, IntPredicate filter) {
+        int[] ids = new int[Math.max(k, 0)];
+        double[] distances = new double[ids.length];
+        int count = kNearest(x, y, z, k, filter, ids, distances, 0);
+        return count == k ? ids : Arrays.copyOf(ids, count);
+    }
+
+    // Fills ids[offset, offset + count) and the matching squared distances in ascending order, returns count <= k.
+    public int kNearest(float x, float y, float z, int k, IntPredicate filter, int[] ids, double[] distances, int offset) {
+        if (k <= 0) return 0;
+        int count = kNearest(0, nodes.length, 0, x, y, z, k, -1, filter, ids, distances, offset, 0);
+        sortHeap(ids, distances, offset, count);
+        return count;
+    }
+
+    // Answers kNearest for every indexed entry, excluding the entry itself. The neighbors of entry id are written
+    // at [id * k, id * k + counts[id]) of the buffers, which must hold k slots for every id of the coordinate array.
+    public int[] kNearestAll(int k, IntPredicate filter, int[] ids, double[] distances) {
+        int[] counts = new int[coords.length / DIMENSIONS];
+        if (k <= 0) return counts;
+        int chunks = Math.max(1, Math.min(nodes.length / BATCH_CHUNK_SIZE, 4 * ForkJoinPool.getCommonPoolParallelism()));
+        IntStream.range(0, chunks).parallel().forEach(chunk -> {
+            for (int i = chunk * nodes.length / chunks, end = (chunk + 1) * nodes.length / chunks; i < end; i++) {
+                int id = nodes[i], offset = id * k;
+                int count = kNearest(0, nodes.length, 0, coords[3 * id], coords[3 * id + 1], coords[3 * id + 2], k, id, filter, ids, distances, offset, 0);
+                sortHeap(ids, distances, offset, count);
+                counts[id] = count;
+            }
+        });
+        return counts;
+    }
+
+    public void rangeSearch(float[] min, float[] max, IntConsumer found) {
+        rangeSearch(0, nodes.length, 0, min, max, found);
+    }
+
+    public double squaredDistance(int id, float x, float y, float z) {
+        double dx = coords[3 * id] - x, dy = coords[3 * id + 1] - y, dz = coords[3 * id + 2] - z;
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    private void build(int lo, int hi, int dimension) {
+        if (hi - lo <= 1) return;
+        int middle = (lo + hi) >>> 1;
+        select(lo, hi - 1, middle, dimension);
+        int newDimension = (dimension + 1) % DIMENSIONS;
+        build(lo, middle, newDimension);
+        build(middle + 1, hi, newDimension);
+    }
+
+    // Quickselect on nodes[lo..hi]: afterwards nodes[k] has the k-th smallest component along the dimension,
+    // with no larger component before it and no smaller one after it.
+    private void select(int lo, int hi, int k, int dimension) {
+        while (hi > lo) {
+            float pivot = medianOfThree(lo, (lo + hi) >>> 1, hi, dimension);
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (component(nodes[i], dimension) < pivot) i++;
+                while (component(nodes[j], dimension) > pivot) j--;
+                if (i <= j) {
+                    int swap = nodes[i];
+                    nodes[i] = nodes[j];
+                    nodes[j] = swap;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private float medianOfThree(int a, int b, int c, int dimension) {
+        float va = component(nodes[a], dimension), vb = component(nodes[b], dimension), vc = component(nodes[c], dimension);
+        if (va < vb) {
+            return vb < vc ? vb : Math.max(va, vc);
+        } else {
+            return va < vc ? va : Math.max(vb, vc);
+        }
+    }
+
+    private float component(int id, int dimension) {
+        return coords[3 * id + dimension];
+    }
+
+    private static float component(float x, float y, float z, int dimension) {
+        return switch (dimension) {
+            case 0 -> x;
+            case 1 -> y;
+            default -> z;
+        };
+    }
+
+    private int nearest(int lo, int hi, int dimension, float x, float y, float z, int candidate) {
+        if (lo >= hi) return candidate;
+        int middle = (lo + hi) >>> 1, element = nodes[middle];
+        if (candidate < 0 || squaredDistance(element, x, y, z) < squaredDistance(candidate, x, y, z)) {
+            candidate = element;
+        }
+        double lineDist = component(x, y, z, dimension) - component(element, dimension);
+        int newDimension = (dimension + 1) % DIMENSIONS;
+        if (lineDist < 0) {
+            candidate = nearest(lo, middle, newDimension, x, y, z, candidate);
+            if (squaredDistance(candidate, x, y, z) >= lineDist * lineDist) {
+                candidate = nearest(middle + 1, hi, newDimension, x, y, z, candidate);
+            }
+        } else {
+            candidate = nearest(middle + 1, hi, newDimension, x, y, z, candidate);
+            if (squaredDistance(candidate, x, y, z) >= lineDist * lineDist) {
+                candidate = nearest(lo, middle, newDimension, x, y, z, candidate);
+            }
+        }
+        return candidate;
+    }
+
+    // The candidates are kept in a bounded max-heap on their squared distance at [offset, offset + count) of the
+    // buffers, so the root is the one to replace.
+    private int kNearest(int lo, int hi, int dimension, float x, float y, float z, int k, int exclude, IntPredicate filter, int[] heapIds, double[] heapDistances, int offset, int count) {
+        if (lo >= hi) return count;
+        int middle = (lo + hi) >>> 1, element = nodes[middle];
+        if (element != exclude && filter.test(element)) {
+            double distance = squaredDistance(element, x, y, z);
+            if (count < k) {
+                siftUp(heapIds, heapDistances, offset, count, element, distance);
+                count++;
+            } else if (distance < heapDistances[offset]) {
+                siftDown(heapIds, heapDistances, offset, count, element, distance);
+            }
+        }
+        double lineDist = component(x, y, z, dimension) - component(element, dimension);
+        int newDimension = (dimension + 1) % DIMENSIONS;
+        boolean leftFirst = lineDist < 0;
+        count = leftFirst
+                ? kNearest(lo, middle, newDimension, x, y, z, k, exclude, filter, heapIds, heapDistances, offset, count)
+                : kNearest(middle + 1, hi, newDimension, x, y, z, k, exclude, filter, heapIds, heapDistances, offset, count);
+        if (count < k || heapDistances[offset] >= lineDist * lineDist) {
+            count = leftFirst
+                    ? kNearest(middle + 1, hi, newDimension, x, y, z, k, exclude, filter, heapIds, heapDistances, offset, count)
+                    : kNearest(lo, middle, newDimension, x, y, z, k, exclude, filter, heapIds, heapDistances, offset, count);
+        }
+        return count;
+    }
+
+    static void siftUp(int[] heapIds, double[] heapDistances, int offset, int index, int id, double distance) {
+        while (index > 0) {
+            int parent = (index - 1) >> 1;
+            if (heapDistances[offset + parent] >= distance) break;
+            heapIds[offset + index] = heapIds[offset + parent];
+            heapDistances[offset + index] = heapDistances[offset + parent];
+            index = parent;
+        }
+        heapIds[offset + index] = id;
+        heapDistances[offset + index] = distance;
+    }
+
+    // Replaces the root of the heap with the given element and restores the heap order.
+    static void siftDown(int[] heapIds, double[] heapDistances, int offset, int size, int id, double distance) {
+        int index = 0;
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size) break;
+            if (child + 1 < size && heapDistances[offset + child + 1] > heapDistances[offset + child]) child++;
+            if (heapDistances[offset + child] <= distance) break;
+            heapIds[offset + index] = heapIds[offset + child];
+            heapDistances[offset + index] = heapDistances[offset + child];
+            index = child;
+        }
+        heapIds[offset + index] = id;
+        heapDistances[offset + index] = distance;
+    }
+
+    // In-place heapsort of a max-heap, leaving the elements in ascending order of distance.
+    static void sortHeap(int[] heapIds, double[] heapDistances, int offset, int count) {
+        for (int last = count - 1; last > 0; last--) {
+            int id = heapIds[offset + last];
+            double distance = heapDistances[offset + last];
+            heapIds[offset + last] = heapIds[offset];
+            heapDistances[offset + last] = heapDistances[offset];
+            siftDown(heapIds, heapDistances, offset, last, id, distance);
+        }
+    }
+
+    private void rangeSearch(int lo, int hi, int dimension, float[] min, float[] max, IntConsumer found) {
+        while (lo < hi) {
+            int middle = (lo + hi) >>> 1, element = nodes[middle];
+            int offset = 3 * element;
+            if (coords[offset] >= min[0] && coords[offset] <= max[0] &&
+                coords[offset + 1] >= min[1] && coords[offset + 1] <= max[1] &&
+                coords[offset + 2] >= min[2] && coords[offset + 2] <= max[2]) {
+                found.accept(element);
+            }
+            float line = coords[offset + dimension];
+            int newDimension = (dimension + 1) % DIMENSIONS;
+            boolean searchLeft = min[dimension] <= line, searchRight = max[dimension] >= line;
+            if (searchLeft && searchRight) {
+                rangeSearch(lo, middle, newDimension, min, max, found);
+                lo = middle + 1;
+            } else if (searchLeft) {
+                hi = middle;
+            } else if (searchRight) {
+                lo = middle + 1;
+            } else {
+                return;
+            }
+            dimension = newDimension;
+        }
+    }
+
+    // Subtrees cover disjoint ranges of the node array, so they can be partitioned concurrently once the
+    // median of their parent has been selected.
+    private class BuildTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int lo, hi, dimension;
+
+        public BuildTask(int lo, int hi, int dimension) {
+            this.lo = lo;
+            this.hi = hi;
+            this.dimension = dimension;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo < PARALLEL_THRESHOLD) {
+                build(lo, hi, dimension);
+                return;
+            }
+            int middle = (lo + hi) >>> 1;
+            select(lo, hi - 1, middle, dimension);
+            int newDimension = (dimension + 1) % DIMENSIONS;
+            invokeAll(new BuildTask(lo, middle, newDimension), new BuildTask(middle + 1, hi, newDimension));
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package io.github.orlouge.blockgradients;
+
+import java.util.Arrays;
+
+/*
+ * Color spaces the gradient graph can be built in. Features are computed once per entry from its sRGB color, in the
+ * same layout as the colors (3 components per id). A fixed scale cannot keep the neighbor radius and the edge length
+ * thresholds of the graph meaningful, since the spaces stretch colors very differently, so features are scaled per
+ * dataset instead: their median nearest neighbor distance is made equal to the one of the sRGB colors, which gives
+ * every space about the same neighbor density.
+ */
+public enum ColorSpace {
+    SRGB,
+    // sRGB with the transfer function removed
+    LINEAR,
+    OKLAB,
+    // D65 white point
+    CIELAB;
+
+    // The factor features(colors, scale) should use for the colors of the given ids.
+    public double normalization(float[] colors, int[] ids) {
+        if (this == SRGB) return 1;
+        double colorDistance = medianNearestDistance(colors, ids), featureDistance = medianNearestDistance(features(colors, 1), ids);
+        return colorDistance > 0 && featureDistance > 0 ? colorDistance / featureDistance : 1;
+    }
+
+    // Returns colors itself for sRGB, a new array otherwise.
+    public float[] features(float[] colors, double scale) {
+        if (this == SRGB) return colors;
+        float[] features = new float[colors.length];
+        double[] converted = new double[3];
+        for (int i = 0; i < colors.length; i += 3) {
+            convert(colors[i], colors[i + 1], colors[i + 2], converted);
+            features[i] = (float) (scale * converted[0]);
+            features[i + 1] = (float) (scale * converted[1]);
+            features[i + 2] = (float) (scale * converted[2]);
+        }
+        return features;
+    }
+
+    private static double medianNearestDistance(float[] coords, int[] ids) {
+        if (ids.length < 2) return 0;
+        int[] nearest = new int[coords.length / 3];
+        double[] distances = new double[nearest.length];
+        new ColorKDTree(coords, ids).kNearestAll(1, id -> true, nearest, distances);
+        double[] idDistances = new double[ids.length];
+        for (int i = 0; i < ids.length; i++) idDistances[i] = distances[ids[i]];
+        Arrays.sort(idDistances);
+        return Math.sqrt(idDistances[ids.length / 2]);
+    }
+
+    public void convert(double red, double green, double blue, double[] result) {
+        switch (this) {
+            case SRGB -> {
+                result[0] = red;
+                result[1] = green;
+                result[2] = blue;
+            }
+            case LINEAR -> {
+                result[0] = linear(red);
+                result[1] = linear(green);
+                result[2] = linear(blue);
+            }
+            case OKLAB -> {
+                double r = linear(red), g = linear(green), b = linear(blue);
+                double l = Math.cbrt(0.4122214708 * r + 0.5363325363 * g + 0.0514459929 * b);
+                double m = Math.cbrt(0.2119034982 * r + 0.6806995451 * g + 0.1073969566 * b);
+                double s = Math.cbrt(0.0883024619 * r + 0.2817188376 * g + 0.6299787005 * b);
+                result[0] = 0.2104542553 * l + 0.7936177850 * m - 0.0040720468 * s;
+                result[1] = 1.9779984951 * l - 2.4285922050 * m + 0.4505937099 * s;
+                result[2] = 0.0259040371 * l + 0.7827717662 * m - 0.8086757660 * s;
+            }
+            case CIELAB -> {
+                double r = linear(red), g = linear(green), b = linear(blue);
+                double x = labCurve((0.4124564 * r + 0.3575761 * g + 0.1804375 * b) / 0.95047);
+                double y = labCurve(0.2126729 * r + 0.7151522 * g + 0.0721750 * b);
+                double z = labCurve((0.0193339 * r + 0.1191920 * g + 0.9503041 * b) / 1.08883);
+                // L in [0, 1] rather than [0, 100]
+                result[0] = (116 * y - 16) / 100;
+                result[1] = 500 * (x - y) / 100;
+                result[2] = 200 * (y - z) / 100;
+            }
+        }
+    }
+
+    private static double linear(double channel) {
+        return channel <= 0.04045 ? channel / 12.92 : Math.pow((channel + 0.055) / 1.055, 2.4);
+    }
+
+    private static double labCurve(double t) {
+        double delta = 6.0 / 29;
+        return t > delta * delta * delta ? Math.cbrt(t) : t / (3 * delta * delta) + 4.0 / 29;
+    }
+}
@@ -0,0 +1,51 @@
+package io.github.orlouge.blockgradients;
+
+/*
+ * Per-channel average, median and deviation from the median of packed pixels (red in the lowest byte, then green
+ * and blue). The pixels are read once to fill the channel histograms; the average and the deviation are derived
+ * from the histogram moments, since sum((c - m)^2) = sum(c^2) - 2 m sum(c) + n m^2.
+ * All results are in [0, 1], indexed by channel.
+ */
+public class ColorStatistics {
+    public final double[] average = new double[3], median = new double[3], stddev = new double[3];
+
+    private ColorStatistics() {
+    }
+
+    public static ColorStatistics compute(int[] pixels) {
+        return compute(pixels, 0, pixels.length);
+    }
+
+    public static ColorStatistics compute(int[] pixels, int offset, int count) {
+        int[] histograms = new int[3 * 256];
+        for (int i = offset, end = offset + count; i < end; i++) {
+            int pixel = pixels[i];
+            histograms[pixel & 0xFF]++;
+            histograms[256 + ((pixel >> 8) & 0xFF)]++;
+            histograms[512 + ((pixel >> 16) & 0xFF)]++;
+        }
+
+        ColorStatistics statistics = new ColorStatistics();
+        int half = count / 2;
+        for (int channel = 0; channel < 3; channel++) {
+            long sum = 0, squareSum = 0;
+            int median = 127, total = 0;
+            boolean medianFound = false;
+            for (int value = 0, base = 256 * channel; value < 256; value++) {
+                int frequency = histograms[base + value];
+                sum += (long) value * frequency;
+                squareSum += (long) value * value * frequency;
+                total += frequency;
+                if (!medianFound && total > half) {
+                    median = value;
+                    medianFound = true;
+                }
+            }
+            long deviation = squareSum - 2L * median * sum + (long) count * median * median;
+            statistics.average[channel] = (double) sum / ((double) count * 255);
+            statistics.median[channel] = median / 255d;
+            statistics.stddev[channel] = Math.sqrt((double) deviation / (double) count) / 255d;
+        }
+        return statistics;
+    }
+}
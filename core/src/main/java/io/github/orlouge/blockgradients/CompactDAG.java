@@ -0,0 +1,201 @@
+package io.github.orlouge.blockgradients;
+
+import java.util.Arrays;
+
+/*
+ * Weighted directed graph over nodes 0 .. nodeCount - 1 with its edges in compressed sparse row form: the out-edges
+ * of node u are the indices offsets[u] .. offsets[u + 1] - 1 of destinations and weights. Removing an edge sets its
+ * weight to infinity, so edge indices stay stable while the graph is mutated.
+ */
+public class CompactDAG {
+    private final int[] offsets, destinations;
+    private final double[] weights;
+
+    public CompactDAG(int[] offsets, int[] destinations, double[] weights) {
+        this.offsets = offsets;
+        this.destinations = destinations;
+        this.weights = weights;
+    }
+
+    public int nodeCount() {
+        return offsets.length - 1;
+    }
+
+    public int edgeCount() {
+        return destinations.length;
+    }
+
+    public int start(int node) {
+        return offsets[node];
+    }
+
+    public int end(int node) {
+        return offsets[node + 1];
+    }
+
+    public int destination(int edge) {
+        return destinations[edge];
+    }
+
+    public double weight(int edge) {
+        return weights[edge];
+    }
+
+    public void scaleWeight(int edge, double factor) {
+        weights[edge] *= factor;
+    }
+
+    public void removeEdge(int edge) {
+        weights[edge] = Double.POSITIVE_INFINITY;
+    }
+
+    public boolean isRemoved(int edge) {
+        return weights[edge] == Double.POSITIVE_INFINITY;
+    }
+
+    public int findEdge(int source, int destination) {
+        for (int edge = offsets[source], end = offsets[source + 1]; edge < end; edge++) {
+            if (destinations[edge] == destination && !isRemoved(edge)) return edge;
+        }
+        return -1;
+    }
+
+    public long memorySize() {
+        return 4L * offsets.length + 12L * destinations.length;
+    }
+
+    /*
+     * Kahn's algorithm: nodes are emitted once all their in-edges are, so the cycle check is the same pass. Returns
+     * null if the graph has a cycle. The order array doubles as the queue, so besides it only the in-degrees are
+     * allocated.
+     */
+    public int[] toposort() {
+        int nodeCount = nodeCount();
+        int[] inDegree = new int[nodeCount], order = new int[nodeCount];
+        for (int edge = 0; edge < destinations.length; edge++) {
+            if (!isRemoved(edge)) inDegree[destinations[edge]]++;
+        }
+        int tail = 0;
+        for (int node = 0; node < nodeCount; node++) {
+            if (inDegree[node] == 0) order[tail++] = node;
+        }
+        for (int head = 0; head < tail; head++) {
+            int node = order[head];
+            for (int edge = offsets[node], end = offsets[node + 1]; edge < end; edge++) {
+                if (!isRemoved(edge) && --inDegree[destinations[edge]] == 0) order[tail++] = destinations[edge];
+            }
+        }
+        return tail == nodeCount ? order : null;
+    }
+
+    /*
+     * The nodes that can be on a path from source to dest, in topological order: those reachable from the source in
+     * a forward pass over the order that can also reach dest in a backward pass. Source and dest are always included.
+     */
+    public int[] relevantNodes(int[] toposorted, int source, int dest) {
+        boolean[] fromSource = new boolean[nodeCount()], toDest = new boolean[nodeCount()];
+        fromSource[source] = true;
+        for (int node : toposorted) {
+            if (!fromSource[node]) continue;
+            for (int edge = offsets[node], end = offsets[node + 1]; edge < end; edge++) {
+                if (!isRemoved(edge)) fromSource[destinations[edge]] = true;
+            }
+        }
+        toDest[dest] = true;
+        int count = 0;
+        for (int i = toposorted.length - 1; i >= 0; i--) {
+            int node = toposorted[i];
+            for (int edge = offsets[node], end = offsets[node + 1]; edge < end && !toDest[node]; edge++) {
+                if (!isRemoved(edge) && toDest[destinations[edge]]) toDest[node] = true;
+            }
+            if ((fromSource[node] && toDest[node]) || node == source || node == dest) count++;
+        }
+        int[] nodes = new int[count];
+        for (int i = 0, j = 0; i < toposorted.length; i++) {
+            int node = toposorted[i];
+            if ((fromSource[node] && toDest[node]) || node == source || node == dest) nodes[j++] = node;
+        }
+        return nodes;
+    }
+
+    // The edges between the given nodes, with node nodes[i] renumbered to i. localIds maps every node of this graph
+    // to its new number, or to -1 if it is left out. Removed edges are left out too.
+    public CompactDAG subgraph(int[] nodes, int[] localIds) {
+        Builder builder = new Builder(nodes.length);
+        for (int i = 0; i < nodes.length; i++) {
+            for (int edge = offsets[nodes[i]], end = offsets[nodes[i] + 1]; edge < end; edge++) {
+                int destination = localIds[destinations[edge]];
+                if (destination >= 0 && !isRemoved(edge)) builder.addEdge(i, destination, weights[edge]);
+            }
+        }
+        return builder.build();
+    }
+
+    /*
+     * Relaxes the edges in topological order, where the weight of an edge u -> v is scaled by
+     * max(nodeFactors[u], nodeFactors[v]) when node factors are given. The nodes strictly between source and dest
+     * on the shortest path are written to path, and their count is returned (0 if dest is not reachable).
+     * cost and parent are work buffers of at least nodeCount elements.
+     */
+    public int shortestPath(int[] toposorted, int source, int dest, double[] nodeFactors, double[] cost, int[] parent, int[] path) {
+        Arrays.fill(cost, 0, nodeCount(), Double.POSITIVE_INFINITY);
+        Arrays.fill(parent, 0, nodeCount(), -1);
+        cost[source] = 0;
+        for (int node : toposorted) {
+            double nodeCost = cost[node];
+            if (nodeCost == Double.POSITIVE_INFINITY) continue;
+            double nodeFactor = nodeFactors == null ? 1 : nodeFactors[node];
+            for (int edge = offsets[node], end = offsets[node + 1]; edge < end; edge++) {
+                int destination = destinations[edge];
+                double weight = nodeFactors == null ? weights[edge] : weights[edge] * Math.max(nodeFactor, nodeFactors[destination]);
+                if (cost[destination] > nodeCost + weight) {
+                    cost[destination] = nodeCost + weight;
+                    parent[destination] = node;
+                }
+            }
+        }
+        return tracePath(source, dest, parent, path);
+    }
+
+    public static int tracePath(int source, int dest, int[] parent, int[] path) {
+        if (parent[dest] < 0) return 0;
+        int length = 0;
+        for (int current = parent[dest]; current != source; current = parent[current]) {
+            if (current < 0) return 0;
+            length++;
+        }
+        for (int current = parent[dest], i = length - 1; current != source; current = parent[current]) {
+            path[i--] = current;
+        }
+        return length;
+    }
+
+    // Accumulates out-edges in increasing source order.
+    public static class Builder {
+        private final int[] offsets;
+        private int[] destinations = new int[1024];
+        private double[] weights = new double[1024];
+        private int current = -1, size = 0;
+
+        public Builder(int nodeCount) {
+            this.offsets = new int[nodeCount + 1];
+        }
+
+        public void addEdge(int source, int destination, double weight) {
+            if (source < current) throw new IllegalArgumentException("Edges must be added in increasing source order");
+            while (current < source) offsets[++current] = size;
+            if (size == destinations.length) {
+                destinations = Arrays.copyOf(destinations, 2 * size);
+                weights = Arrays.copyOf(weights, 2 * size);
+            }
+            destinations[size] = destination;
+            weights[size] = weight;
+            size++;
+        }
+
+        public CompactDAG build() {
+            while (current < offsets.length - 1) offsets[++current] = size;
+            return new CompactDAG(offsets, Arrays.copyOf(destinations, size), Arrays.copyOf(weights, size));
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package io.github.orlouge.blockgradients;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/*
+ * Gradient graphs precomputed for a fixed set of directions, spread evenly on the unit sphere. The edges of a map and
+ * their weights only depend on the direction from source to dest, so a map can reuse the graph of the closest
+ * direction instead of evaluating every neighbor edge. Paths are then approximate: edges nearly perpendicular to the
+ * gradient may be kept or dropped differently, and edges are weighted for the bucket direction.
+ *
+ * Per direction, only the edges of the neighbor graph that are kept are stored, as a bit set over the neighbor edges,
+ * with their weights as floats and the topological order. Since every kept edge goes forward along the direction,
+ * sorting the nodes by their projection on it gives that order. Buckets are computed when a map first needs them, and
+ * can be released to free memory.
+ *
+ * Each bucket also keeps the shortest-path trees from the sources of its last few maps, as parent arrays. The first row
+ * of a map is the tree path to dest, from the tree of source or of any source whose tree path to dest passes through
+ * it, so it is found without building the engine; that is only done, seeded with the row, when the second row is
+ * requested. Tree paths ignore the middle color that the engine steers its first row away from.
+ */
+public class DirectionBuckets {
+    public static final int MAX_COUNT = 128;
+    private static final int TREES_PER_BUCKET = 4;
+    private static final long NODE_MASK = (1L << 24) - 1;
+
+    private final float[] features, colors;
+    private final int[] ids;
+    private final NeighborGraph neighbors;
+    private final float[] averageColors;
+    private final ColorKDTree averageTree;
+    private final double[] directions;
+    private final AtomicReferenceArray<Bucket> buckets;
+    private final Object[] bucketLocks;
+
+    public DirectionBuckets(float[] features, float[] colors, int[] ids, NeighborGraph neighbors, float[] averageColors, ColorKDTree averageTree, int count) {
+        if (count < 1 || count > MAX_COUNT) throw new IllegalArgumentException("Direction bucket count out of range: " + count);
+        if (neighbors.nodeCount() > NODE_MASK + 1) throw new IllegalArgumentException("Too many nodes for direction buckets");
+        this.features = features;
+        this.colors = colors;
+        this.ids = ids;
+        this.neighbors = neighbors;
+        this.averageColors = averageColors;
+        this.averageTree = averageTree;
+        this.directions = new double[3 * count];
+        this.buckets = new AtomicReferenceArray<>(count);
+        this.bucketLocks = new Object[count];
+        // Fibonacci sphere
+        double goldenAngle = Math.PI * (3 - Math.sqrt(5));
+        for (int i = 0; i < count; i++) {
+            double z = 1 - (2 * i + 1) / (double) count, radius = Math.sqrt(1 - z * z);
+            directions[3 * i] = radius * Math.cos(goldenAngle * i);
+            directions[3 * i + 1] = radius * Math.sin(goldenAngle * i);
+            directions[3 * i + 2] = z;
+            bucketLocks[i] = new Object();
+        }
+    }
+
+    public int size() {
+        return buckets.length();
+    }
+
+    // Approximate number of bytes held by the computed buckets.
+    public long memorySize() {
+        long size = 0;
+        for (int i = 0; i < size(); i++) {
+            Bucket bucket = buckets.get(i);
+            if (bucket != null) size += bucket.memorySize();
+        }
+        return size;
+    }
+
+    // Drops the computed buckets; maps built from them are not affected, later maps compute them again.
+    public void release() {
+        for (int i = 0; i < size(); i++) buckets.set(i, null);
+    }
+
+    public GradientEngine engine(int source, int dest) {
+        Bucket bucket = bucket(closest(source, dest));
+        int[] firstRow = firstRow(bucket, source, dest);
+        if (firstRow == null) return search(bucket, source, dest);
+        return GradientEngine.seeded(firstRow, () -> search(bucket, source, dest));
+    }
+
+    private GradientEngine search(Bucket bucket, int source, int dest) {
+        CompactDAG.Builder graphBuilder = new CompactDAG.Builder(neighbors.nodeCount());
+        int kept = 0;
+        for (int id : ids) {
+            for (int i = neighbors.start(id), end = neighbors.end(id); i < end; i++) {
+                if ((bucket.kept[i >> 6] & (1L << i)) == 0) continue;
+                int neighborId = neighbors.neighbor(i);
+                if (id != source || neighborId != dest) graphBuilder.addEdge(id, neighborId, bucket.weights[kept]);
+                kept++;
+            }
+        }
+        return GradientEngine.create(graphBuilder.build(), bucket.order, colors, source, dest, averageColors, averageTree);
+    }
+
+    // The tree path from source to dest, or null if dest is not reachable or only through the direct edge.
+    private int[] firstRow(Bucket bucket, int source, int dest) {
+        synchronized (bucket.trees) {
+            for (Iterator<SourceTree> iterator = bucket.trees.iterator(); iterator.hasNext(); ) {
+                SourceTree tree = iterator.next();
+                int[] row = treeRow(tree.parents, source, dest);
+                if (row != null || tree.source == source) {
+                    iterator.remove();
+                    bucket.trees.addFirst(tree);
+                    return row;
+                }
+            }
+        }
+        SourceTree tree = new SourceTree(source, shortestPathTree(bucket, source));
+        synchronized (bucket.trees) {
+            if (bucket.trees.stream().noneMatch(other -> other.source == source)) {
+                if (bucket.trees.size() == TREES_PER_BUCKET) bucket.trees.removeLast();
+                bucket.trees.addFirst(tree);
+            }
+        }
+        return treeRow(tree.parents, source, dest);
+    }
+
+    // Subpaths of shortest paths are shortest paths, so any tree with source on its path to dest gives the row.
+    private static int[] treeRow(int[] parents, int source, int dest) {
+        int length = 1;
+        for (int node = dest; node != source; length++) {
+            node = parents[node];
+            if (node < 0) return null;
+        }
+        if (length == 2) return null;
+        int[] row = new int[length];
+        for (int node = dest; length > 0; node = parents[node]) row[--length] = node;
+        return row;
+    }
+
+    // Relaxes the kept edges in topological order from source; the parent of unreached nodes and of source is -1.
+    private int[] shortestPathTree(Bucket bucket, int source) {
+        double[] distances = new double[neighbors.nodeCount()];
+        Arrays.fill(distances, Double.POSITIVE_INFINITY);
+        int[] parents = new int[neighbors.nodeCount()];
+        Arrays.fill(parents, -1);
+        distances[source] = 0;
+        int position = 0;
+        while (bucket.order[position] != source) position++;
+        for (; position < bucket.order.length; position++) {
+            int id = bucket.order[position];
+            double distance = distances[id];
+            if (distance == Double.POSITIVE_INFINITY) continue;
+            for (int i = neighbors.start(id), end = neighbors.end(id), kept = bucket.weightStarts[id]; i < end; i++) {
+                if ((bucket.kept[i >> 6] & (1L << i)) == 0) continue;
+                int neighborId = neighbors.neighbor(i);
+                double candidate = distance + bucket.weights[kept++];
+                if (candidate < distances[neighborId]) {
+                    distances[neighborId] = candidate;
+                    parents[neighborId] = id;
+                }
+            }
+        }
+        return parents;
+    }
+
+    private int closest(int source, int dest) {
+        double x = (double) features[3 * dest] - features[3 * source];
+        double y = (double) features[3 * dest + 1] - features[3 * source + 1];
+        double z = (double) features[3 * dest + 2] - features[3 * source + 2];
+        int closest = 0;
+        double best = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < size(); i++) {
+            double dot = directions[3 * i] * x + directions[3 * i + 1] * y + directions[3 * i + 2] * z;
+            if (dot > best) {
+                best = dot;
+                closest = i;
+            }
+        }
+        return closest;
+    }
+
+    private Bucket bucket(int index) {
+        Bucket bucket = buckets.get(index);
+        if (bucket == null) {
+            synchronized (bucketLocks[index]) {
+                bucket = buckets.get(index);
+                if (bucket == null) {
+                    bucket = computeBucket(directions[3 * index], directions[3 * index + 1], directions[3 * index + 2]);
+                    buckets.set(index, bucket);
+                }
+            }
+        }
+        return bucket;
+    }
+
+    // Same edges and weights as GradientEngine.build for a source to dest vector of unit length along (x, y, z).
+    private Bucket computeBucket(double x, double y, double z) {
+        long[] kept = new long[(neighbors.edgeCount() + 63) >> 6];
+        float[] weights = new float[neighbors.edgeCount()];
+        int[] weightStarts = new int[neighbors.nodeCount()];
+        int keptCount = 0;
+        for (int id : ids) {
+            weightStarts[id] = keptCount;
+            for (int i = neighbors.start(id), end = neighbors.end(id); i < end; i++) {
+                int neighborId = neighbors.neighbor(i);
+                if (neighborId == id) continue;
+                double dx = (double) features[3 * neighborId] - features[3 * id];
+                double dy = (double) features[3 * neighborId + 1] - features[3 * id + 1];
+                double dz = (double) features[3 * neighborId + 2] - features[3 * id + 2];
+                double distance = neighbors.distance(i);
+                double cosine = (x * dx + y * dy + z * dz) / (distance + 1e-10);
+                if (GradientEngine.isForward(cosine, distance)) {
+                    kept[i >> 6] |= 1L << i;
+                    weights[keptCount++] = (float) GradientEngine.weight(cosine, distance);
+                }
+            }
+        }
+        // Sorted as longs: the projection in an order-preserving bit pattern, with its low bits replaced by the node.
+        // That leaves 28 mantissa bits, far finer than the smallest projection step of a kept edge.
+        long[] keys = new long[neighbors.nodeCount()];
+        for (int node = 0; node < keys.length; node++) {
+            long bits = Double.doubleToLongBits(x * features[3 * node] + y * features[3 * node + 1] + z * features[3 * node + 2] + 0.0);
+            bits ^= (bits >> 63) & Long.MAX_VALUE;
+            keys[node] = (bits & ~NODE_MASK) | node;
+        }
+        Arrays.sort(keys);
+        int[] order = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) order[i] = (int) (keys[i] & NODE_MASK);
+        return new Bucket(kept, Arrays.copyOf(weights, keptCount), weightStarts, order);
+    }
+
+    private static class Bucket {
+        public final long[] kept;
+        public final float[] weights;
+        // Index in weights of the first kept edge of every node
+        public final int[] weightStarts;
+        public final int[] order;
+        // Most recently used first
+        public final ArrayDeque<SourceTree> trees = new ArrayDeque<>(TREES_PER_BUCKET);
+
+        public Bucket(long[] kept, float[] weights, int[] weightStarts, int[] order) {
+            this.kept = kept;
+            this.weights = weights;
+            this.weightStarts = weightStarts;
+            this.order = order;
+        }
+
+        public long memorySize() {
+            long size = 8L * kept.length + 4L * (weights.length + weightStarts.length + order.length);
+            synchronized (trees) {
+                for (SourceTree tree : trees) size += 4L * tree.parents.length;
+            }
+            return size;
+        }
+    }
+
+    private static class SourceTree {
+        public final int source;
+        public final int[] parents;
+
+        public SourceTree(int source, int[] parents) {
+            this.source = source;
+            this.parents = parents;
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package io.github.orlouge.blockgradients;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+
+/*
+ * Path generation of a gradient map on entry ids and flat color arrays (3 components per id): every call of
+ * nextPath returns the cheapest remaining path from source to dest, then makes its edges more expensive and
+ * removes the cheapest one so that the following paths differ.
+ * Paths are searched on the subgraph of the nodes that lie on some path from source to dest, renumbered
+ * contiguously in topological order; entry ids are only used at the boundary, for the middle color and the rows.
+ * An engine can also start from a first row found elsewhere, and only build its search when the second is requested.
+ */
+public class GradientEngine {
+    private final CompactDAG graph;
+    private final IncrementalShortestPath shortestPaths;
+    // Entry id of every subgraph node, and subgraph node of every entry id (-1 outside the subgraph)
+    private final int[] nodes, localIds;
+    private final int source, dest;
+    private final float[] averageColors;
+    private final ColorKDTree averageTree;
+    private final int[] pathBuffer;
+    private double middleX, middleY, middleZ;
+    private int[] factorNodes = new int[16], nextFactorNodes = new int[16];
+    private int factorCount = 0, nextFactorCount = 0;
+    private final float[] middleMin = new float[3], middleMax = new float[3];
+    private final IntConsumer middleNeighborCollector = this::collectMiddleNeighbor;
+    private boolean finished = false;
+    // Only for seeded engines, which delegate to the engine built by the supplier
+    private int[] firstRow = null;
+    private boolean firstRowReturned = false;
+    private Supplier<GradientEngine> searchSupplier = null;
+    private GradientEngine search = null;
+
+    // graph is a subgraph numbered in topological order, source and dest are subgraph nodes.
+    private GradientEngine(CompactDAG graph, int[] nodes, int[] localIds, int source, int dest, float[] averageColors, ColorKDTree averageTree, double middleX, double middleY, double middleZ) {
+        this.graph = graph;
+        this.nodes = nodes;
+        this.localIds = localIds;
+        this.source = source;
+        this.dest = dest;
+        int[] order = new int[nodes.length];
+        for (int node = 0; node < order.length; node++) order[node] = node;
+        this.shortestPaths = new IncrementalShortestPath(graph, order, source, dest);
+        this.averageColors = averageColors;
+        this.averageTree = averageTree;
+        this.pathBuffer = new int[graph.nodeCount()];
+        this.middleX = middleX;
+        this.middleY = middleY;
+        this.middleZ = middleZ;
+    }
+
+    private GradientEngine(int[] firstRow, Supplier<GradientEngine> searchSupplier) {
+        this.graph = null;
+        this.shortestPaths = null;
+        this.nodes = this.localIds = this.pathBuffer = null;
+        this.source = this.dest = -1;
+        this.averageColors = null;
+        this.averageTree = null;
+        this.firstRow = firstRow;
+        this.searchSupplier = searchSupplier;
+    }
+
+    /*
+     * An engine that returns firstRow, a row from source to dest, and then the rows of the engine from searchSupplier
+     * after the second one. That engine is created when the second row is requested and continues as if it had
+     * returned firstRow itself, which must not be the direct edge from source to dest.
+     */
+    public static GradientEngine seeded(int[] firstRow, Supplier<GradientEngine> searchSupplier) {
+        return new GradientEngine(firstRow, searchSupplier);
+    }
+
+    /*
+     * Connects every node of ids (in increasing order) to the neighbors that lie roughly in the direction from source
+     * to dest in feature space. colors are the sRGB colors the features were computed from. Returns null if the result
+     * has a cycle.
+     */
+    public static GradientEngine build(float[] features, float[] colors, int[] ids, NeighborGraph neighbors, int source, int dest, float[] averageColors, ColorKDTree averageTree) {
+        double sourceToDestX = (double) features[3 * dest] - features[3 * source];
+        double sourceToDestY = (double) features[3 * dest + 1] - features[3 * source + 1];
+        double sourceToDestZ = (double) features[3 * dest + 2] - features[3 * source + 2];
+        double sourceToDestLength = Math.sqrt(sourceToDestX * sourceToDestX + sourceToDestY * sourceToDestY + sourceToDestZ * sourceToDestZ);
+        CompactDAG.Builder graphBuilder = new CompactDAG.Builder(neighbors.nodeCount());
+        for (int id : ids) {
+            double x = features[3 * id], y = features[3 * id + 1], z = features[3 * id + 2];
+            for (int i = neighbors.start(id), end = neighbors.end(id); i < end; i++) {
+                int neighborId = neighbors.neighbor(i);
+                if (neighborId == id || (id == source && neighborId == dest)) continue;
+                double dx = features[3 * neighborId] - x, dy = features[3 * neighborId + 1] - y, dz = features[3 * neighborId + 2] - z;
+                double distance = neighbors.distance(i);
+                double cosine = (sourceToDestX * dx + sourceToDestY * dy + sourceToDestZ * dz) / (sourceToDestLength * distance + 1e-10);
+                if (isForward(cosine, distance)) {
+                    graphBuilder.addEdge(id, neighborId, weight(cosine, distance));
+                }
+            }
+        }
+        CompactDAG graph = graphBuilder.build();
+        int[] order = graph.toposort();
+        if (order == null) return null;
+        return create(graph, order, colors, source, dest, averageColors, averageTree);
+    }
+
+    // graph is on entry ids, and sortedNodes is a topological order of it.
+    public static GradientEngine create(CompactDAG graph, int[] sortedNodes, float[] colors, int source, int dest, float[] averageColors, ColorKDTree averageTree) {
+        int[] nodes = graph.relevantNodes(sortedNodes, source, dest);
+        int[] localIds = new int[graph.nodeCount()];
+        Arrays.fill(localIds, -1);
+        for (int node = 0; node < nodes.length; node++) localIds[nodes[node]] = node;
+        return new GradientEngine(
+                graph.subgraph(nodes, localIds), nodes, localIds, localIds[source], localIds[dest], averageColors, averageTree,
+                initialMiddle(colors, source, dest, 0), initialMiddle(colors, source, dest, 1), initialMiddle(colors, source, dest, 2)
+        );
+    }
+
+    // Edges go from a color to a neighbor that is not too close and lies in the direction of the gradient.
+    static boolean isForward(double cosine, double distance) {
+        return cosine > 0.0001 && distance > 0.04;
+    }
+
+    // Short edges that are well aligned with the gradient are the cheapest.
+    static double weight(double cosine, double distance) {
+        double weight = 0.1 * (Math.exp(distance * 30) - 1);
+        weight += 0.1 * (Math.exp(15 * (1 - cosine)) - 1);
+        return weight;
+    }
+
+    // The color opposite to the midpoint of the endpoints
+    private static double initialMiddle(float[] colors, int source, int dest, int dimension) {
+        return (((double) colors[3 * source + dimension] + colors[3 * dest + dimension]) * -0.5 + 0.5) % 1;
+    }
+
+    public long memorySize() {
+        if (searchSupplier != null) return 4L * firstRow.length;
+        if (graph == null) return search != null ? search.memorySize() : 0;
+        return graph.memorySize() + shortestPaths.memorySize() + 4L * (2 * nodes.length + localIds.length)
+                + 4L * (pathBuffer.length + factorNodes.length + nextFactorNodes.length);
+    }
+
+    // Returns the ids of the next row from source to dest, or null once source and dest are no longer connected.
+    public int[] nextPath() {
+        if (graph == null) return nextSeededPath();
+        if (finished) return null;
+        updateNodeFactors();
+        int length = shortestPaths.shortestPath(pathBuffer);
+        if (length == 0) {
+            finished = true;
+            return null;
+        }
+        penalize(pathBuffer, length);
+        int[] ids = new int[length + 2];
+        ids[0] = nodes[source];
+        for (int i = 0; i < length; i++) ids[i + 1] = nodes[pathBuffer[i]];
+        ids[length + 1] = nodes[dest];
+        return ids;
+    }
+
+    private int[] nextSeededPath() {
+        if (search == null) {
+            if (!firstRowReturned) {
+                firstRowReturned = true;
+                return firstRow;
+            }
+            search = searchSupplier.get();
+            searchSupplier = null;
+            search.skipPath(firstRow);
+            firstRow = null;
+        }
+        return search.nextPath();
+    }
+
+    // Applies the changes nextPath makes after finding ids, a path from source to dest through the subgraph.
+    private void skipPath(int[] ids) {
+        int length = ids.length - 2;
+        for (int i = 0; i < length; i++) {
+            pathBuffer[i] = localIds[ids[i + 1]];
+            if (pathBuffer[i] < 0) return;
+        }
+        penalize(pathBuffer, length);
+    }
+
+    // Moves the middle color towards the middle of path, makes the edges on and near it more expensive and removes
+    // the cheapest one.
+    private void penalize(int[] path, int length) {
+        int middle = nodes[path[length / 2]];
+        middleX = middleX * 0.95 + averageColors[3 * middle] * 0.05;
+        middleY = middleY * 0.95 + averageColors[3 * middle + 1] * 0.05;
+        middleZ = middleZ * 0.95 + averageColors[3 * middle + 2] * 0.05;
+        int shortestEdge = graph.findEdge(source, path[0]);
+        shortestPaths.scaleWeight(shortestEdge, 50);
+        for (int d = 1; d < 4; d++) {
+            for (int i = 0; i < length - d; i++) {
+                int edge = graph.findEdge(path[i], path[i + d]);
+                if (edge < 0) continue;
+                if (d == 1 && graph.weight(edge) < graph.weight(shortestEdge)) {
+                    shortestEdge = edge;
+                }
+                shortestPaths.scaleWeight(edge, 1 + 50d / d);
+            }
+        }
+        int lastEdge = graph.findEdge(path[length - 1], dest);
+        if (lastEdge >= 0) {
+            shortestPaths.scaleWeight(lastEdge, 50);
+            if (graph.weight(lastEdge) < graph.weight(shortestEdge)) {
+                shortestEdge = lastEdge;
+            }
+        }
+        shortestPaths.removeEdge(shortestEdge);
+    }
+
+    // Paths are discouraged from passing near the running middle color: nodes closer than 0.15 to it get a factor
+    // above 1 on their edge weights. Only the nodes that were or are now in that ball need their factor updated.
+    private void updateNodeFactors() {
+        for (int i = 0; i < factorCount; i++) {
+            shortestPaths.setNodeFactor(factorNodes[i], 1);
+        }
+        middleMin[0] = (float) (middleX - 0.15);
+        middleMin[1] = (float) (middleY - 0.15);
+        middleMin[2] = (float) (middleZ - 0.15);
+        middleMax[0] = (float) (middleX + 0.15);
+        middleMax[1] = (float) (middleY + 0.15);
+        middleMax[2] = (float) (middleZ + 0.15);
+        nextFactorCount = 0;
+        averageTree.rangeSearch(middleMin, middleMax, middleNeighborCollector);
+        int[] swap = factorNodes;
+        factorNodes = nextFactorNodes;
+        nextFactorNodes = swap;
+        factorCount = nextFactorCount;
+    }
+
+    private void collectMiddleNeighbor(int id) {
+        int node = localIds[id];
+        if (node < 0) return;
+        double dx = averageColors[3 * id] - middleX, dy = averageColors[3 * id + 1] - middleY, dz = averageColors[3 * id + 2] - middleZ;
+        double distance = Math.sqrt(dx * dx + dy * dy + dz * dz);
+        if (distance < 0.15) {
+            shortestPaths.setNodeFactor(node, Math.exp(10 * (0.15 - distance)));
+            if (nextFactorCount == nextFactorNodes.length) nextFactorNodes = Arrays.copyOf(nextFactorNodes, 2 * nextFactorCount);
+            nextFactorNodes[nextFactorCount++] = node;
+        }
+    }
+}
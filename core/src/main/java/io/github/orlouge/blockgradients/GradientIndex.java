@@ -0,0 +1,187 @@
+package io.github.orlouge.blockgradients;
+
+/*
+ * The colors of a fixed set of entries (3 components per id) and the neighbor structures shared by all the gradient
+ * maps between them. Maps are built on features, the colors converted once to the chosen color space and normalized
+ * on the average colors (see ColorSpace); the middle color that paths avoid is always tracked in sRGB. Structures are
+ * built on first use; maps can be built concurrently, so every structure is published through a volatile field and
+ * built under its own lock. With direction buckets, maps use the graphs precomputed by DirectionBuckets, each
+ * computed by the first map that needs it.
+ */
+public class GradientIndex {
+    public static final double MAX_DIFF = 0.15;
+
+    private final float[] averageColors, dominantColors, averageFeatures, dominantFeatures;
+    private final int[] ids, dominantIds;
+    private final boolean gridNeighbors;
+    private final int directionBuckets;
+    private volatile ColorKDTree dominantNeighborTree = null, averageNeighborTree = null, averageColorTree = null;
+    private volatile NeighborGraph dominantNeighborGraph = null, averageNeighborGraph = null;
+    private final Object dominantTreeLock = new Object(), averageTreeLock = new Object(), colorTreeLock = new Object();
+    private final Object dominantGraphLock = new Object(), averageGraphLock = new Object();
+    private volatile DirectionBuckets dominantBuckets = null, averageBuckets = null;
+    private final Object dominantBucketsLock = new Object(), averageBucketsLock = new Object();
+
+    // Entries without a dominant color are left out of the dominant maps. Neighbors are found with a ColorGrid if
+    // gridNeighbors is set, with a range search on the KD tree otherwise.
+    public GradientIndex(float[] averageColors, float[] dominantColors, boolean[] hasDominant, boolean gridNeighbors) {
+        this(averageColors, dominantColors, hasDominant, ColorSpace.SRGB, gridNeighbors, 0);
+    }
+
+    // No direction buckets if directionBuckets is 0, at most DirectionBuckets.MAX_COUNT.
+    public GradientIndex(float[] averageColors, float[] dominantColors, boolean[] hasDominant, ColorSpace colorSpace, boolean gridNeighbors, int directionBuckets) {
+        this.averageColors = averageColors;
+        this.dominantColors = dominantColors;
+        this.gridNeighbors = gridNeighbors;
+        this.directionBuckets = Math.max(0, Math.min(directionBuckets, DirectionBuckets.MAX_COUNT));
+        this.ids = new int[hasDominant.length];
+        int dominantCount = 0;
+        for (int id = 0; id < hasDominant.length; id++) {
+            ids[id] = id;
+            if (hasDominant[id]) dominantCount++;
+        }
+        this.dominantIds = new int[dominantCount];
+        for (int id = 0, i = 0; id < hasDominant.length; id++) {
+            if (hasDominant[id]) dominantIds[i++] = id;
+        }
+        // Both modes are scaled alike, since the average neighbor graph is searched around the dominant colors
+        double scale = colorSpace.normalization(averageColors, ids);
+        this.averageFeatures = colorSpace.features(averageColors, scale);
+        this.dominantFeatures = colorSpace.features(dominantColors, scale);
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    // Approximate number of bytes held by the structures built so far.
+    public long memorySize() {
+        long size = 4L * (ids.length + dominantIds.length);
+        if (averageFeatures != averageColors) size += 4L * (averageFeatures.length + dominantFeatures.length);
+        for (ColorKDTree tree : new ColorKDTree[]{dominantNeighborTree, averageNeighborTree, averageColorTree}) {
+            if (tree != null) size += 4L * tree.size();
+        }
+        for (NeighborGraph graph : new NeighborGraph[]{dominantNeighborGraph, averageNeighborGraph}) {
+            if (graph != null) size += graph.memorySize();
+        }
+        for (DirectionBuckets buckets : new DirectionBuckets[]{dominantBuckets, averageBuckets}) {
+            if (buckets != null) size += buckets.memorySize();
+        }
+        return size;
+    }
+
+    // Drops the computed direction buckets, the largest structures; they are computed again when needed.
+    public void releaseBuckets() {
+        for (DirectionBuckets buckets : new DirectionBuckets[]{dominantBuckets, averageBuckets}) {
+            if (buckets != null) buckets.release();
+        }
+    }
+
+    // Returns null if the graph between source and dest has a cycle.
+    public GradientEngine engine(int source, int dest, boolean dominant) {
+        if (directionBuckets > 0) return getDirectionBuckets(dominant).engine(source, dest);
+        return GradientEngine.build(
+                dominant ? dominantFeatures : averageFeatures, dominant ? dominantColors : averageColors,
+                dominant ? dominantIds : ids, getNeighborGraph(dominant), source, dest, averageColors, getColorTree()
+        );
+    }
+
+    private DirectionBuckets getDirectionBuckets(boolean dominant) {
+        if (dominant) {
+            if (dominantBuckets == null) {
+                synchronized (dominantBucketsLock) {
+                    if (dominantBuckets == null) {
+                        dominantBuckets = new DirectionBuckets(
+                                dominantFeatures, dominantColors, dominantIds, getNeighborGraph(true),
+                                averageColors, getColorTree(), directionBuckets
+                        );
+                    }
+                }
+            }
+            return dominantBuckets;
+        } else {
+            if (averageBuckets == null) {
+                synchronized (averageBucketsLock) {
+                    if (averageBuckets == null) {
+                        averageBuckets = new DirectionBuckets(
+                                averageFeatures, averageColors, ids, getNeighborGraph(false),
+                                averageColors, getColorTree(), directionBuckets
+                        );
+                    }
+                }
+            }
+            return averageBuckets;
+        }
+    }
+
+    private ColorKDTree getNeighborTree(boolean dominant) {
+        if (dominant) {
+            if (dominantNeighborTree == null) {
+                synchronized (dominantTreeLock) {
+                    if (dominantNeighborTree == null) {
+                        dominantNeighborTree = new ColorKDTree(dominantFeatures, dominantIds);
+                    }
+                }
+            }
+            return dominantNeighborTree;
+        } else {
+            if (averageNeighborTree == null) {
+                synchronized (averageTreeLock) {
+                    if (averageNeighborTree == null) {
+                        averageNeighborTree = new ColorKDTree(averageFeatures, ids);
+                    }
+                }
+            }
+            return averageNeighborTree;
+        }
+    }
+
+    // Average colors in sRGB, shared with the average neighbor tree when the features are the colors.
+    private ColorKDTree getColorTree() {
+        if (averageFeatures == averageColors) return getNeighborTree(false);
+        if (averageColorTree == null) {
+            synchronized (colorTreeLock) {
+                if (averageColorTree == null) {
+                    averageColorTree = new ColorKDTree(averageColors, ids);
+                }
+            }
+        }
+        return averageColorTree;
+    }
+
+    private NeighborGraph getNeighborGraph(boolean dominant) {
+        if (dominant) {
+            if (dominantNeighborGraph == null) {
+                synchronized (dominantGraphLock) {
+                    if (dominantNeighborGraph == null) {
+                        float radius = (float) (MAX_DIFF * 1.2);
+                        if (gridNeighbors) {
+                            dominantNeighborGraph = new ColorGrid(dominantFeatures, dominantIds, radius).neighborGraph(size());
+                        } else {
+                            dominantNeighborGraph = NeighborGraph.rangeSearch(
+                                    getNeighborTree(true), dominantFeatures, dominantFeatures, dominantIds, size(), radius, true
+                            );
+                        }
+                    }
+                }
+            }
+            return dominantNeighborGraph;
+        } else {
+            if (averageNeighborGraph == null) {
+                synchronized (averageGraphLock) {
+                    if (averageNeighborGraph == null) {
+                        float radius = (float) MAX_DIFF;
+                        if (gridNeighbors) {
+                            averageNeighborGraph = new ColorGrid(averageFeatures, ids, radius).neighborGraph(size());
+                        } else {
+                            averageNeighborGraph = NeighborGraph.rangeSearch(
+                                    getNeighborTree(false), averageFeatures, dominantFeatures, ids, size(), radius, true
+                            );
+                        }
+                    }
+                }
+            }
+            return averageNeighborGraph;
+        }
+    }
+}
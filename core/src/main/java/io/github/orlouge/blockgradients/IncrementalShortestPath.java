@@ -0,0 +1,228 @@
+package io.github.orlouge.blockgradients;
+
+import java.util.Arrays;
+
+/*
+ * Single-source shortest paths on a CompactDAG that are kept up to date while node factors and edge weights change.
+ * The weight of an edge u -> v is its graph weight scaled by max(factor[u], factor[v]). Every change marks the nodes
+ * whose in-edges it affects, and the next query recomputes those nodes from their in-edges in topological order.
+ * A recomputed node only marks the successors that depend on it or that it can now improve, so the work stays in
+ * the region downstream of the changes, falling back to a linear pass when a large part of the order is affected.
+ * Nodes after dest in the order are never needed, so they are left pending.
+ */
+public class IncrementalShortestPath {
+    private final CompactDAG graph;
+    private final int[] order, position, inOffsets, inSources, inSlots;
+    private final double[] inWeights;
+    private final int source, dest;
+    private final double[] factors, cost;
+    private final int[] parent, queue;
+    private final boolean[] queued, outChanged, reachable;
+    private int queueSize = 0;
+    private boolean initialized = false;
+
+    public IncrementalShortestPath(CompactDAG graph, int[] toposorted, int source, int dest) {
+        int nodeCount = graph.nodeCount();
+        this.graph = graph;
+        this.order = toposorted;
+        this.source = source;
+        this.dest = dest;
+        this.position = new int[nodeCount];
+        for (int i = 0; i < order.length; i++) {
+            position[order[i]] = i;
+        }
+        // In-edges are grouped by destination and sorted by the position of their source, which gives the same
+        // tie-breaking as a full relaxation in topological order. Their weights are mirrored in that layout.
+        this.inOffsets = new int[nodeCount + 1];
+        this.inSources = new int[graph.edgeCount()];
+        this.inWeights = new double[graph.edgeCount()];
+        this.inSlots = new int[graph.edgeCount()];
+        for (int edge = 0; edge < graph.edgeCount(); edge++) {
+            inOffsets[graph.destination(edge) + 1]++;
+        }
+        for (int node = 0; node < nodeCount; node++) {
+            inOffsets[node + 1] += inOffsets[node];
+        }
+        int[] fill = Arrays.copyOf(inOffsets, nodeCount);
+        for (int node : order) {
+            for (int edge = graph.start(node), end = graph.end(node); edge < end; edge++) {
+                int slot = fill[graph.destination(edge)]++;
+                inSources[slot] = node;
+                inWeights[slot] = graph.weight(edge);
+                inSlots[edge] = slot;
+            }
+        }
+        this.factors = new double[nodeCount];
+        Arrays.fill(factors, 1);
+        this.cost = new double[nodeCount];
+        this.parent = new int[nodeCount];
+        this.queue = new int[nodeCount];
+        this.queued = new boolean[nodeCount];
+        this.outChanged = new boolean[nodeCount];
+        // Edges are only ever removed, so nodes that cannot be reached from the source now never will be.
+        this.reachable = new boolean[nodeCount];
+        reachable[source] = true;
+        for (int i = position[source]; i < order.length; i++) {
+            int node = order[i];
+            if (!reachable[node]) continue;
+            for (int edge = graph.start(node), end = graph.end(node); edge < end; edge++) {
+                if (!graph.isRemoved(edge)) reachable[graph.destination(edge)] = true;
+            }
+        }
+    }
+
+    // The topological order is not counted, since it can be shared.
+    public long memorySize() {
+        int nodeCount = graph.nodeCount(), edgeCount = graph.edgeCount();
+        return 4L * (4 * nodeCount + 1) + 16L * edgeCount + 16L * nodeCount + 3L * nodeCount;
+    }
+
+    public void setNodeFactor(int node, double factor) {
+        if (factors[node] == factor) return;
+        factors[node] = factor;
+        if (!initialized) return;
+        enqueue(node);
+        outChanged[node] = true;
+    }
+
+    public void scaleWeight(int edge, double factor) {
+        graph.scaleWeight(edge, factor);
+        inWeights[inSlots[edge]] = graph.weight(edge);
+        if (initialized) enqueue(graph.destination(edge));
+    }
+
+    public void removeEdge(int edge) {
+        graph.removeEdge(edge);
+        inWeights[inSlots[edge]] = graph.weight(edge);
+        if (initialized) enqueue(graph.destination(edge));
+    }
+
+    // Writes the nodes strictly between source and dest on the current shortest path, returns their count.
+    public int shortestPath(int[] path) {
+        if (!initialized) {
+            relaxAll();
+            initialized = true;
+        } else {
+            update();
+        }
+        return CompactDAG.tracePath(source, dest, parent, path);
+    }
+
+    private double weight(int edge, int from, int to) {
+        return graph.weight(edge) * Math.max(factors[from], factors[to]);
+    }
+
+    private void relaxAll() {
+        Arrays.fill(cost, Double.POSITIVE_INFINITY);
+        Arrays.fill(parent, -1);
+        cost[source] = 0;
+        for (int i = position[source], last = position[dest]; i < last; i++) {
+            int node = order[i];
+            double nodeCost = cost[node];
+            if (nodeCost == Double.POSITIVE_INFINITY) continue;
+            for (int edge = graph.start(node), end = graph.end(node); edge < end; edge++) {
+                int destination = graph.destination(edge);
+                double weight = weight(edge, node, destination);
+                if (cost[destination] > nodeCost + weight) {
+                    cost[destination] = nodeCost + weight;
+                    parent[destination] = node;
+                }
+            }
+        }
+    }
+
+    private void update() {
+        int last = position[dest], budget = (last - position[source]) / 16 + 1;
+        while (queueSize > 0 && queue[0] <= last) {
+            if (budget-- == 0) {
+                recomputeRange(queue[0], last);
+                return;
+            }
+            int node = order[poll()];
+            queued[node] = false;
+            if (recompute(node) || outChanged[node]) {
+                outChanged[node] = false;
+                propagate(node);
+            }
+        }
+    }
+
+    // When the changes reach a large part of the graph, a linear pass is cheaper than maintaining the queue.
+    private void recomputeRange(int first, int last) {
+        while (queueSize > 0 && queue[0] <= last) {
+            int node = order[poll()];
+            queued[node] = false;
+            outChanged[node] = false;
+        }
+        for (int i = first; i <= last; i++) {
+            recompute(order[i]);
+        }
+    }
+
+    private boolean recompute(int node) {
+        if (node == source || !reachable[node]) return false;
+        double best = Double.POSITIVE_INFINITY;
+        int bestParent = -1;
+        double nodeFactor = factors[node];
+        for (int i = inOffsets[node], end = inOffsets[node + 1]; i < end; i++) {
+            int from = inSources[i];
+            double fromCost = cost[from];
+            if (fromCost == Double.POSITIVE_INFINITY) continue;
+            double candidate = fromCost + inWeights[i] * Math.max(factors[from], nodeFactor);
+            if (candidate < best) {
+                best = candidate;
+                bestParent = from;
+            }
+        }
+        if (best == cost[node] && bestParent == parent[node]) return false;
+        cost[node] = best;
+        parent[node] = bestParent;
+        return true;
+    }
+
+    // A successor only has to be recomputed if it depends on this node, or if the edge from this node now beats
+    // (or ties with an earlier source than) its current parent.
+    private void propagate(int node) {
+        double nodeCost = cost[node];
+        for (int edge = graph.start(node), end = graph.end(node); edge < end; edge++) {
+            int destination = graph.destination(edge);
+            if (queued[destination]) continue;
+            if (parent[destination] == node) {
+                enqueue(destination);
+            } else if (nodeCost != Double.POSITIVE_INFINITY) {
+                double candidate = nodeCost + weight(edge, node, destination);
+                if (candidate < cost[destination] || (candidate == cost[destination] && parent[destination] >= 0 && position[node] < position[parent[destination]])) {
+                    enqueue(destination);
+                }
+            }
+        }
+    }
+
+    // Min-heap of topological positions.
+    private void enqueue(int node) {
+        if (queued[node] || !reachable[node]) return;
+        queued[node] = true;
+        int index = queueSize++, value = position[node];
+        while (index > 0) {
+            int parentIndex = (index - 1) >> 1;
+            if (queue[parentIndex] <= value) break;
+            queue[index] = queue[parentIndex];
+            index = parentIndex;
+        }
+        queue[index] = value;
+    }
+
+    private int poll() {
+        int result = queue[0], value = queue[--queueSize], index = 0;
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= queueSize) break;
+            if (child + 1 < queueSize && queue[child + 1] < queue[child]) child++;
+            if (queue[child] >= value) break;
+            queue[index] = queue[child];
+            index = child;
+        }
+        queue[index] = value;
+        return result;
+    }
+}
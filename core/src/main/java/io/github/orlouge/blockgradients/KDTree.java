@@ -77,9 +77,9 @@ public class KDTree<T> {
                 }
             } else {
                 if (component.apply(deleted, dimension) < component.apply(element, dimension)) {
-                    return new Node(element, left == null ? null : left.delete(element, subDimension, dimensions, component), right);
+                    return new Node(element, left == null ? null : left.delete(deleted, subDimension, dimensions, component), right);
                 } else {
-                    return new Node(element, left, right == null ? null : right.delete(element, subDimension, dimensions, component));
+                    return new Node(element, left, right == null ? null : right.delete(deleted, subDimension, dimensions, component));
                 }
             }
         }
@@ -88,8 +88,10 @@ public class KDTree<T> {
             if (squaredDistance.apply(element, compared) < squaredDistance.apply(candidate, compared)) candidate = element;
             double lineDist = component.apply(compared, dimension) - component.apply(element, dimension);
             Node sub1 = lineDist < 0 ? left : right, sub2 = lineDist < 0 ? right : left;
-            candidate = sub1.nearest(compared, candidate, (dimension + 1) % dimensions, dimensions, component, squaredDistance);
-            if (squaredDistance.apply(candidate, compared) >= lineDist * lineDist) {
+            if (sub1 != null) {
+                candidate = sub1.nearest(compared, candidate, (dimension + 1) % dimensions, dimensions, component, squaredDistance);
+            }
+            if (sub2 != null && squaredDistance.apply(candidate, compared) >= lineDist * lineDist) {
                 candidate = sub2.nearest(compared, candidate, (dimension + 1) % dimensions, dimensions, component, squaredDistance);
             }
             return candidate;
@@ -131,17 +133,21 @@ public class KDTree<T> {
             if (comparedDimension == dimension) {
                 return left == null ? element : left.minimum(comparedDimension, (dimension + 1) % dimensions, dimensions, component);
             } else {
-                T leftMin = left.minimum(comparedDimension, (dimension + 1) % dimensions, dimensions, component);
-                T rightMin = right.minimum(comparedDimension, (dimension + 1) % dimensions, dimensions, component);
                 T min = element;
                 double minComponent = component.apply(min, comparedDimension);
-                double leftComponent = component.apply(leftMin, comparedDimension);
-                if (leftComponent < minComponent) {
-                    minComponent = leftComponent;
-                    min = leftMin;
+                if (left != null) {
+                    T leftMin = left.minimum(comparedDimension, (dimension + 1) % dimensions, dimensions, component);
+                    double leftComponent = component.apply(leftMin, comparedDimension);
+                    if (leftComponent < minComponent) {
+                        minComponent = leftComponent;
+                        min = leftMin;
+                    }
                 }
-                if (component.apply(rightMin, comparedDimension) < minComponent) {
-                    min = rightMin;
+                if (right != null) {
+                    T rightMin = right.minimum(comparedDimension, (dimension + 1) % dimensions, dimensions, component);
+                    if (component.apply(rightMin, comparedDimension) < minComponent) {
+                        min = rightMin;
+                    }
                 }
                 return min;
             }
@@ -0,0 +1,290 @@
+package io.github.orlouge.blockgradients;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/*
+ * Mutable counterpart of ColorKDTree. Nodes live in parallel arrays addressed by node index and keep a copy of
+ * their point, so entries can be inserted and removed one at a time. Removal only marks the node as a tombstone;
+ * subtrees are rebuilt scapegoat-style when an insertion makes them too deep, or when more than half of their
+ * nodes are tombstones.
+ */
+public class MutableColorKDTree {
+    private static final double ALPHA = 0.7;
+
+    private float[] points = new float[0];
+    private int[] ids = new int[0], left = new int[0], right = new int[0], parent = new int[0], size = new int[0], live = new int[0];
+    private byte[] axis = new byte[0];
+    private boolean[] deleted = new boolean[0];
+    private int[] nodeOf = new int[0], free = new int[0], scratch = new int[0];
+    private int nodeCount = 0, freeCount = 0, root = -1;
+
+    public MutableColorKDTree() {
+    }
+
+    public MutableColorKDTree(float[] coords, int[] ids) {
+        ensureCapacity(ids.length);
+        for (int id : ids) {
+            int node = allocate(id, coords[3 * id], coords[3 * id + 1], coords[3 * id + 2]);
+            parent[node] = -1;
+            if (root < 0) {
+                root = node;
+            } else {
+                right[node] = right[root];
+                right[root] = node;
+            }
+        }
+        if (root >= 0) {
+            size[root] = live[root] = ids.length;
+            rebuild(root);
+        }
+    }
+
+    public int size() {
+        return root < 0 ? 0 : live[root];
+    }
+
+    public boolean contains(int id) {
+        return id >= 0 && id < nodeOf.length && nodeOf[id] >= 0;
+    }
+
+    public void insert(int id, float x, float y, float z) {
+        if (contains(id)) remove(id);
+        ensureCapacity(nodeCount - freeCount + 1);
+        int node = allocate(id, x, y, z);
+        if (root < 0) {
+            root = node;
+            parent[node] = -1;
+            axis[node] = 0;
+            return;
+        }
+        int current = root, depth = 1;
+        while (true) {
+            size[current]++;
+            live[current]++;
+            int dimension = axis[current];
+            boolean goLeft = points[3 * node + dimension] < points[3 * current + dimension];
+            int next = goLeft ? left[current] : right[current];
+            if (next < 0) {
+                if (goLeft) {
+                    left[current] = node;
+                } else {
+                    right[current] = node;
+                }
+                parent[node] = current;
+                axis[node] = (byte) ((dimension + 1) % ColorKDTree.DIMENSIONS);
+                break;
+            }
+            current = next;
+            depth++;
+        }
+        if (depth > Math.log(size[root]) / Math.log(1 / ALPHA)) {
+            for (int child = node, ancestor = parent[node]; ancestor >= 0; child = ancestor, ancestor = parent[ancestor]) {
+                if (size[child] > ALPHA * size[ancestor]) {
+                    rebuild(ancestor);
+                    break;
+                }
+            }
+        }
+    }
+
+    public boolean remove(int id) {
+        if (!contains(id)) return false;
+        int node = nodeOf[id];
+        nodeOf[id] = -1;
+        deleted[node] = true;
+        int tombstoned = -1;
+        for (int ancestor = node; ancestor >= 0; ancestor = parent[ancestor]) {
+            live[ancestor]--;
+            if (2 * live[ancestor] < size[ancestor]) tombstoned = ancestor;
+        }
+        if (tombstoned >= 0) rebuild(tombstoned);
+        return true;
+    }
+
+    public int nearest(float x, float y, float z) {
+        int node = nearest(root, x, y, z, -1);
+        return node < 0 ? -1 : ids[node];
+    }
+
+    // Fills ids[0, count) and the matching squared distances in ascending order, returns count <= k.
+    public int kNearest(float x, float y, float z, int k, int[] ids, double[] distances) {
+        if (k <= 0) return 0;
+        int count = kNearest(root, x, y, z, k, ids, distances, 0);
+        ColorKDTree.sortHeap(ids, distances, 0, count);
+        return count;
+    }
+
+    public void rangeSearch(float[] min, float[] max, IntConsumer found) {
+        rangeSearch(root, min, max, found);
+    }
+
+    // Depth of the deepest node, tombstones included.
+    int height() {
+        return height(root);
+    }
+
+    private double squaredDistance(int node, float x, float y, float z) {
+        double dx = points[3 * node] - x, dy = points[3 * node + 1] - y, dz = points[3 * node + 2] - z;
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    private int nearest(int node, float x, float y, float z, int candidate) {
+        if (node < 0 || live[node] == 0) return candidate;
+        if (!deleted[node] && (candidate < 0 || squaredDistance(node, x, y, z) < squaredDistance(candidate, x, y, z))) {
+            candidate = node;
+        }
+        int dimension = axis[node];
+        double lineDist = (dimension == 0 ? x : dimension == 1 ? y : z) - points[3 * node + dimension];
+        int sub1 = lineDist < 0 ? left[node] : right[node], sub2 = lineDist < 0 ? right[node] : left[node];
+        candidate = nearest(sub1, x, y, z, candidate);
+        if (candidate < 0 || squaredDistance(candidate, x, y, z) >= lineDist * lineDist) {
+            candidate = nearest(sub2, x, y, z, candidate);
+        }
+        return candidate;
+    }
+
+    // Same bounded max-heap as ColorKDTree, on entry ids.
+    private int kNearest(int node, float x, float y, float z, int k, int[] heapIds, double[] heapDistances, int count) {
+        if (node < 0 || live[node] == 0) return count;
+        if (!deleted[node]) {
+            double distance = squaredDistance(node, x, y, z);
+            if (count < k) {
+                ColorKDTree.siftUp(heapIds, heapDistances, 0, count, ids[node], distance);
+                count++;
+            } else if (distance < heapDistances[0]) {
+                ColorKDTree.siftDown(heapIds, heapDistances, 0, count, ids[node], distance);
+            }
+        }
+        int dimension = axis[node];
+        double lineDist = (dimension == 0 ? x : dimension == 1 ? y : z) - points[3 * node + dimension];
+        int sub1 = lineDist < 0 ? left[node] : right[node], sub2 = lineDist < 0 ? right[node] : left[node];
+        count = kNearest(sub1, x, y, z, k, heapIds, heapDistances, count);
+        if (count < k || heapDistances[0] >= lineDist * lineDist) {
+            count = kNearest(sub2, x, y, z, k, heapIds, heapDistances, count);
+        }
+        return count;
+    }
+
+    private int height(int node) {
+        return node < 0 ? 0 : 1 + Math.max(height(left[node]), height(right[node]));
+    }
+
+    private void rangeSearch(int node, float[] min, float[] max, IntConsumer found) {
+        if (node < 0 || live[node] == 0) return;
+        int offset = 3 * node;
+        if (!deleted[node] &&
+            points[offset] >= min[0] && points[offset] <= max[0] &&
+            points[offset + 1] >= min[1] && points[offset + 1] <= max[1] &&
+            points[offset + 2] >= min[2] && points[offset + 2] <= max[2]) {
+            found.accept(ids[node]);
+        }
+        int dimension = axis[node];
+        float line = points[offset + dimension];
+        if (min[dimension] <= line) rangeSearch(left[node], min, max, found);
+        if (max[dimension] >= line) rangeSearch(right[node], min, max, found);
+    }
+
+    private int allocate(int id, float x, float y, float z) {
+        int node = freeCount > 0 ? free[--freeCount] : nodeCount++;
+        if (id >= nodeOf.length) {
+            int oldLength = nodeOf.length;
+            nodeOf = Arrays.copyOf(nodeOf, Math.max(id + 1, 2 * oldLength));
+            Arrays.fill(nodeOf, oldLength, nodeOf.length, -1);
+        }
+        nodeOf[id] = node;
+        ids[node] = id;
+        points[3 * node] = x;
+        points[3 * node + 1] = y;
+        points[3 * node + 2] = z;
+        left[node] = right[node] = -1;
+        size[node] = live[node] = 1;
+        deleted[node] = false;
+        return node;
+    }
+
+    private void ensureCapacity(int liveNodes) {
+        int required = Math.max(nodeCount, liveNodes + freeCount) + 1;
+        if (required <= ids.length) return;
+        int capacity = Math.max(16, Math.max(required, 2 * ids.length));
+        points = Arrays.copyOf(points, 3 * capacity);
+        ids = Arrays.copyOf(ids, capacity);
+        left = Arrays.copyOf(left, capacity);
+        right = Arrays.copyOf(right, capacity);
+        parent = Arrays.copyOf(parent, capacity);
+        size = Arrays.copyOf(size, capacity);
+        live = Arrays.copyOf(live, capacity);
+        axis = Arrays.copyOf(axis, capacity);
+        deleted = Arrays.copyOf(deleted, capacity);
+        free = Arrays.copyOf(free, capacity);
+    }
+
+    private void rebuild(int subtree) {
+        int parentNode = parent[subtree], dimension = axis[subtree];
+        if (scratch.length < size[subtree]) scratch = new int[Math.max(size[subtree], 2 * scratch.length)];
+        int count = collect(subtree, 0), removed = size[subtree] - count;
+        int newSubtree = build(0, count, dimension, parentNode);
+        for (int ancestor = parentNode; ancestor >= 0; ancestor = parent[ancestor]) {
+            size[ancestor] -= removed;
+        }
+        if (parentNode < 0) {
+            root = newSubtree;
+        } else if (left[parentNode] == subtree) {
+            left[parentNode] = newSubtree;
+        } else {
+            right[parentNode] = newSubtree;
+        }
+    }
+
+    // Moves the live nodes of the subtree into scratch and frees the tombstones.
+    private int collect(int node, int count) {
+        while (node >= 0) {
+            if (deleted[node]) {
+                free[freeCount++] = node;
+            } else {
+                scratch[count++] = node;
+            }
+            count = collect(left[node], count);
+            node = right[node];
+        }
+        return count;
+    }
+
+    private int build(int lo, int hi, int dimension, int parentNode) {
+        if (lo >= hi) return -1;
+        int middle = (lo + hi) >>> 1;
+        select(lo, hi - 1, middle, dimension);
+        int node = scratch[middle], newDimension = (dimension + 1) % ColorKDTree.DIMENSIONS;
+        axis[node] = (byte) dimension;
+        parent[node] = parentNode;
+        left[node] = build(lo, middle, newDimension, node);
+        right[node] = build(middle + 1, hi, newDimension, node);
+        size[node] = live[node] = hi - lo;
+        return node;
+    }
+
+    private void select(int lo, int hi, int k, int dimension) {
+        while (hi > lo) {
+            float pivot = points[3 * scratch[(lo + hi) >>> 1] + dimension];
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (points[3 * scratch[i] + dimension] < pivot) i++;
+                while (points[3 * scratch[j] + dimension] > pivot) j--;
+                if (i <= j) {
+                    int swap = scratch[i];
+                    scratch[i] = scratch[j];
+                    scratch[j] = swap;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+}
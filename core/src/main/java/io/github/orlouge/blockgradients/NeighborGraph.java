@@ -0,0 +1,107 @@
+package io.github.orlouge.blockgradients;
+
+import java.util.Arrays;
+
+/*
+ * Neighborhoods of entries in compressed sparse row form: the neighbors of entry id are
+ * neighborIds[offsets[id]] .. neighborIds[offsets[id + 1] - 1], optionally with their distances at the same indices.
+ */
+public class NeighborGraph {
+    private final int[] offsets, neighborIds;
+    private final float[] distances;
+
+    public NeighborGraph(int[] offsets, int[] neighborIds, float[] distances) {
+        this.offsets = offsets;
+        this.neighborIds = neighborIds;
+        this.distances = distances;
+    }
+
+    // For each of the given ids, finds the indexed points in the box of the given half width around its center.
+    public static NeighborGraph rangeSearch(ColorKDTree tree, float[] coords, float[] centers, int[] ids, int nodeCount, float halfWidth, boolean withDistances) {
+        Builder builder = new Builder(nodeCount, withDistances);
+        float[] min = new float[3], max = new float[3];
+        for (int id : ids) {
+            for (int dim = 0; dim < 3; dim++) {
+                min[dim] = centers[3 * id + dim] - halfWidth;
+                max[dim] = centers[3 * id + dim] + halfWidth;
+            }
+            builder.startNode(id);
+            tree.rangeSearch(min, max, neighbor -> builder.add(neighbor, withDistances ? distance(coords, id, neighbor) : 0));
+        }
+        return builder.build();
+    }
+
+    public static float distance(float[] coords, int a, int b) {
+        float dx = coords[3 * a] - coords[3 * b], dy = coords[3 * a + 1] - coords[3 * b + 1], dz = coords[3 * a + 2] - coords[3 * b + 2];
+        return (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    public int nodeCount() {
+        return offsets.length - 1;
+    }
+
+    public int edgeCount() {
+        return offsets[offsets.length - 1];
+    }
+
+    public int start(int id) {
+        return offsets[id];
+    }
+
+    public int end(int id) {
+        return offsets[id + 1];
+    }
+
+    public int neighbor(int index) {
+        return neighborIds[index];
+    }
+
+    public boolean hasDistances() {
+        return distances != null;
+    }
+
+    public float distance(int index) {
+        return distances[index];
+    }
+
+    public long memorySize() {
+        return 4L * offsets.length + 4L * neighborIds.length + (distances != null ? 4L * distances.length : 0);
+    }
+
+    // Accumulates neighborhoods in increasing id order; ids that are skipped get an empty neighborhood.
+    public static class Builder {
+        private final int[] offsets;
+        private int[] neighborIds = new int[1024];
+        private float[] distances;
+        private int current = -1, size = 0;
+
+        public Builder(int nodeCount, boolean withDistances) {
+            this.offsets = new int[nodeCount + 1];
+            this.distances = withDistances ? new float[neighborIds.length] : null;
+        }
+
+        public void startNode(int id) {
+            if (id <= current) throw new IllegalArgumentException("Neighborhoods must be added in increasing id order");
+            while (current < id) offsets[++current] = size;
+        }
+
+        public void add(int neighbor, float distance) {
+            if (size == neighborIds.length) {
+                neighborIds = Arrays.copyOf(neighborIds, 2 * size);
+                if (distances != null) distances = Arrays.copyOf(distances, 2 * size);
+            }
+            neighborIds[size] = neighbor;
+            if (distances != null) distances[size] = distance;
+            size++;
+        }
+
+        public NeighborGraph build() {
+            while (current < offsets.length - 1) offsets[++current] = size;
+            return new NeighborGraph(
+                    offsets,
+                    Arrays.copyOf(neighborIds, size),
+                    distances != null ? Arrays.copyOf(distances, size) : null
+            );
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package io.github.orlouge.blockgradients;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Axis-aligned textured quads of one frame, grouped by texture so that every group can be submitted as a single
+ * draw. Each quad is stored as x0, y0, x1, y1, u0, v0, u1, v1 in the float array of its group. The arrays are kept
+ * across clear() calls, so a frame only allocates when it draws more quads than any frame before it.
+ */
+public class QuadBatch<T> {
+    public static final int FLOATS_PER_QUAD = 8;
+
+    private final Map<T, Integer> groupIndex = new HashMap<>();
+    private final List<T> textures = new ArrayList<>();
+    private float[][] quads = new float[0][];
+    private int[] quadCounts = new int[0];
+
+    public void clear() {
+        Arrays.fill(quadCounts, 0);
+    }
+
+    public void add(T texture, float x0, float y0, float x1, float y1, float u0, float v0, float u1, float v1) {
+        int group = groupIndex.computeIfAbsent(texture, this::addGroup);
+        float[] groupQuads = quads[group];
+        int offset = quadCounts[group] * FLOATS_PER_QUAD;
+        if (offset == groupQuads.length) {
+            groupQuads = quads[group] = Arrays.copyOf(groupQuads, Math.max(16 * FLOATS_PER_QUAD, 2 * groupQuads.length));
+        }
+        groupQuads[offset] = x0;
+        groupQuads[offset + 1] = y0;
+        groupQuads[offset + 2] = x1;
+        groupQuads[offset + 3] = y1;
+        groupQuads[offset + 4] = u0;
+        groupQuads[offset + 5] = v0;
+        groupQuads[offset + 6] = u1;
+        groupQuads[offset + 7] = v1;
+        quadCounts[group]++;
+    }
+
+    // Groups stay in order of first use; groups without quads in this frame have a quad count of 0.
+    public int groupCount() {
+        return textures.size();
+    }
+
+    public T texture(int group) {
+        return textures.get(group);
+    }
+
+    public int quadCount(int group) {
+        return quadCounts[group];
+    }
+
+    public float[] quads(int group) {
+        return quads[group];
+    }
+
+    private int addGroup(T texture) {
+        int group = textures.size();
+        textures.add(texture);
+        quads = Arrays.copyOf(quads, group + 1);
+        quads[group] = new float[0];
+        quadCounts = Arrays.copyOf(quadCounts, group + 1);
+        return group;
+    }
+}
@@ -0,0 +1,52 @@
+package io.github.orlouge.blockgradients;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ColorDatasetTest {
+    @Test
+    public void facedEntriesRoundTrip(@TempDir Path directory) throws IOException {
+        Path path = directory.resolve("entries.tsv");
+        double[] average = {0.1, 0.2, 1.0 / 3}, median = {0.15, 0.2, 0.3}, stddev = {0.01, 0.02, 0.03};
+        try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            writer.write(ColorDataset.HEADER + "\n");
+            ColorDataset.writeEntry(writer, 0, "minecraft:stone", average, median, stddev);
+            ColorDataset.writeEntry(writer, 1, "minecraft:oak_log[down,up],minecraft:oak_wood,minecraft:stripped_oak_log[up]", average, median, stddev);
+        }
+        ColorDataset dataset = ColorDataset.load(path);
+        assertEquals(2, dataset.size());
+        assertEquals("minecraft:oak_log[down,up],minecraft:oak_wood,minecraft:stripped_oak_log[up]", dataset.blocks(1));
+        assertEquals(0, dataset.find("minecraft:stone"));
+        assertEquals(1, dataset.find("minecraft:oak_log"));
+        assertEquals(1, dataset.find("minecraft:oak_wood"));
+        assertEquals(1, dataset.find("minecraft:stripped_oak_log"));
+        assertEquals(1, dataset.find("1"));
+        for (String fragment : List.of("up]", "down", "minecraft:oak_log[down", "up", "2")) {
+            assertEquals(-1, dataset.find(fragment), fragment);
+        }
+    }
+
+    @Test
+    public void malformedEntriesAreRejected(@TempDir Path directory) throws IOException {
+        Path path = directory.resolve("entries.tsv");
+        for (String line : List.of("1\tminecraft:stone\t0 0 0\t0 0 0\t0 0 0", "0\tminecraft:stone\t0 0\t0 0 0\t0 0 0", "0\tminecraft:stone\t0 0 x\t0 0 0\t0 0 0")) {
+            Files.writeString(path, ColorDataset.HEADER + "\n" + line + "\n");
+            assertThrows(IOException.class, () -> ColorDataset.load(path), line);
+        }
+    }
+
+    @Test
+    public void blocksAreOnlySplitOutsideOfFaceLists() {
+        assertEquals(List.of("a[down,up]", "b", "c[north]"), ColorDataset.splitBlocks("a[down,up],b,c[north]"));
+        assertEquals(List.of("a"), ColorDataset.splitBlocks("a"));
+    }
+}
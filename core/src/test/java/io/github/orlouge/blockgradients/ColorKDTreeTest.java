@@ -0,0 +1,89 @@
+package io.github.orlouge.blockgradients;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ColorKDTreeTest {
+    // Coordinates on a coarse lattice, so that there are many equal components and distances.
+    static float[] latticeColors(Random random, int count, int steps) {
+        float[] coords = new float[3 * count];
+        for (int i = 0; i < coords.length; i++) coords[i] = (float) Math.floor(random.nextFloat() * steps) / steps;
+        return coords;
+    }
+
+    // Only every other id is indexed, to check that ids outside the tree are never returned.
+    private static void checkQueries(int count, boolean parallel) {
+        Random random = new Random(count);
+        float[] coords = latticeColors(random, count, 20);
+        int[] ids = IntStream.range(0, count / 2).map(i -> 2 * i).toArray();
+        ColorKDTree tree = new ColorKDTree(coords, ids, parallel);
+        IntPredicate filter = id -> id % 3 != 0;
+        for (int query = 0; query < 200; query++) {
+            float x = random.nextFloat(), y = random.nextFloat(), z = random.nextFloat();
+
+            double nearest = Double.POSITIVE_INFINITY;
+            for (int id : ids) nearest = Math.min(nearest, tree.squaredDistance(id, x, y, z));
+            assertEquals(nearest, tree.squaredDistance(tree.nearest(x, y, z), x, y, z));
+
+            double[] expected = Arrays.stream(ids).filter(filter).mapToDouble(id -> tree.squaredDistance(id, x, y, z)).sorted().limit(7).toArray();
+            int[] found = tree.kNearest(x, y, z, 7, filter);
+            assertEquals(expected.length, found.length);
+            for (int i = 0; i < found.length; i++) {
+                assertTrue(filter.test(found[i]) && found[i] % 2 == 0);
+                assertEquals(expected[i], tree.squaredDistance(found[i], x, y, z));
+            }
+
+            float[] min = {x - 0.1f, y - 0.1f, z - 0.1f}, max = {x + 0.1f, y + 0.1f, z + 0.1f};
+            Set<Integer> inRange = new HashSet<>();
+            for (int id : ids) {
+                boolean inside = true;
+                for (int dim = 0; dim < 3; dim++) inside &= coords[3 * id + dim] >= min[dim] && coords[3 * id + dim] <= max[dim];
+                if (inside) inRange.add(id);
+            }
+            Set<Integer> searched = new HashSet<>();
+            tree.rangeSearch(min, max, id -> assertTrue(searched.add(id)));
+            assertEquals(inRange, searched);
+        }
+    }
+
+    @Test
+    public void serialTreeMatchesBruteForce() {
+        checkQueries(3000, false);
+    }
+
+    @Test
+    public void parallelTreeMatchesBruteForce() {
+        checkQueries(20000, true);
+    }
+
+    @Test
+    public void batchedKNearestMatchesSingleQueries() {
+        Random random = new Random(4);
+        int count = 5000, k = 5;
+        float[] coords = latticeColors(random, count, 30);
+        int[] ids = IntStream.range(0, count).toArray();
+        ColorKDTree tree = new ColorKDTree(coords, ids);
+        int[] neighbors = new int[k * count];
+        double[] distances = new double[k * count];
+        int[] counts = tree.kNearestAll(k, id -> true, neighbors, distances);
+        for (int id = 0; id < count; id += 7) {
+            int self = id;
+            float x = coords[3 * id], y = coords[3 * id + 1], z = coords[3 * id + 2];
+            double[] expected = IntStream.range(0, count).filter(other -> other != self)
+                    .mapToDouble(other -> tree.squaredDistance(other, x, y, z)).sorted().limit(k).toArray();
+            assertEquals(k, counts[id]);
+            for (int i = 0; i < k; i++) {
+                assertNotEquals(id, neighbors[k * id + i]);
+                assertEquals(expected[i], distances[k * id + i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package io.github.orlouge.blockgradients;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ColorSpaceTest {
+    private static final int COUNT = 3000;
+
+    private static double meanDegree(float[] features, int[] ids) {
+        NeighborGraph graph = new ColorGrid(features, ids, (float) GradientIndex.MAX_DIFF).neighborGraph(COUNT);
+        return graph.edgeCount() / (double) ids.length;
+    }
+
+    private static void assertConverts(ColorSpace colorSpace, double red, double green, double blue, double... expected) {
+        double[] converted = new double[3];
+        colorSpace.convert(red, green, blue, converted);
+        assertArrayEquals(expected, converted, 1e-4, colorSpace.toString());
+    }
+
+    // The neighbor radius is the same in every space, so normalized features must give about the same density.
+    private static void checkDegrees(float[] colors) {
+        int[] ids = IntStream.range(0, COUNT).toArray();
+        double srgbDegree = meanDegree(colors, ids);
+        for (ColorSpace colorSpace : ColorSpace.values()) {
+            float[] features = colorSpace.features(colors, colorSpace.normalization(colors, ids));
+            double ratio = meanDegree(features, ids) / srgbDegree;
+            assertTrue(ratio > 0.6 && ratio < 1.6, colorSpace + " degree ratio " + ratio);
+        }
+    }
+
+    @Test
+    public void convertsReferenceColors() {
+        assertConverts(ColorSpace.LINEAR, 0.5, 0.04, 1, 0.214041, 0.04 / 12.92, 1);
+        assertConverts(ColorSpace.OKLAB, 1, 0, 0, 0.627955, 0.224863, 0.125846);
+        assertConverts(ColorSpace.CIELAB, 1, 0, 0, 0.532408, 0.800925, 0.672032);
+    }
+
+    @Test
+    public void uniformColorsHaveComparableDegrees() {
+        Random random = new Random(12);
+        float[] colors = new float[3 * COUNT];
+        for (int i = 0; i < colors.length; i++) colors[i] = random.nextFloat();
+        checkDegrees(colors);
+    }
+
+    @Test
+    public void clusteredColorsHaveComparableDegrees() {
+        Random random = new Random(13);
+        float[][] centers = new float[30][3];
+        for (float[] center : centers) {
+            for (int dim = 0; dim < 3; dim++) center[dim] = random.nextFloat();
+        }
+        float[] colors = new float[3 * COUNT];
+        for (int id = 0; id < COUNT; id++) {
+            float[] center = centers[random.nextInt(centers.length)];
+            for (int dim = 0; dim < 3; dim++) {
+                colors[3 * id + dim] = (float) Math.min(1, Math.max(0, center[dim] + 0.06 * random.nextGaussian()));
+            }
+        }
+        checkDegrees(colors);
+    }
+
+    @Test
+    public void srgbFeaturesAreTheColors() {
+        float[] colors = {0.1f, 0.2f, 0.3f, 0.4f, 0.5f, 0.6f};
+        int[] ids = {0, 1};
+        assertEquals(1, ColorSpace.SRGB.normalization(colors, ids));
+        assertSame(colors, ColorSpace.SRGB.features(colors, 1));
+    }
+}
@@ -0,0 +1,88 @@
+package io.github.orlouge.blockgradients;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DirectionBucketsTest {
+    private static final int COUNT = 1500;
+
+    private static float[] randomColors(Random random) {
+        float[] colors = new float[3 * COUNT];
+        for (int i = 0; i < colors.length; i++) colors[i] = random.nextFloat();
+        return colors;
+    }
+
+    private static DirectionBuckets buckets(float[] colors, int count) {
+        int[] ids = IntStream.range(0, COUNT).toArray();
+        ColorKDTree tree = new ColorKDTree(colors, ids);
+        NeighborGraph neighbors = new ColorGrid(colors, ids, (float) GradientIndex.MAX_DIFF).neighborGraph(COUNT);
+        return new DirectionBuckets(colors, colors, ids, neighbors, colors, tree, count);
+    }
+
+    @Test
+    public void rowsAreDistinctPathsOnNeighborEdges() {
+        Random random = new Random(11);
+        float[] colors = randomColors(random);
+        DirectionBuckets buckets = buckets(colors, 16);
+        for (int pair = 0; pair < 10; pair++) {
+            int source = random.nextInt(COUNT), dest = random.nextInt(COUNT);
+            if (source == dest) continue;
+            GradientEngine engine = buckets.engine(source, dest);
+            Set<String> rows = new HashSet<>();
+            int[] row;
+            while (rows.size() < 20 && (row = engine.nextPath()) != null) {
+                assertTrue(rows.add(Arrays.toString(row)), "repeated row");
+                assertEquals(source, row[0]);
+                assertEquals(dest, row[row.length - 1]);
+                for (int i = 1; i < row.length; i++) {
+                    assertTrue(NeighborGraph.distance(colors, row[i - 1], row[i]) <= GradientIndex.MAX_DIFF + 1e-6);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void firstRowsComeFromCachedTreesWithoutTheSearch() {
+        Random random = new Random(13);
+        float[] colors = randomColors(random);
+        DirectionBuckets buckets = buckets(colors, 16);
+        int checked = 0;
+        while (checked < 10) {
+            int source = random.nextInt(COUNT), dest = random.nextInt(COUNT);
+            if (source == dest) continue;
+            GradientEngine engine = buckets.engine(source, dest);
+            long size = buckets.memorySize();
+            int[] row = engine.nextPath();
+            if (row == null || engine.memorySize() != 4L * row.length) continue;
+            // The same pair walks the same tree, which is not computed again
+            assertArrayEquals(row, buckets.engine(source, dest).nextPath());
+            assertEquals(size, buckets.memorySize());
+            int[] second = engine.nextPath();
+            if (second != null) assertFalse(Arrays.equals(row, second));
+            checked++;
+        }
+    }
+
+    @Test
+    public void bucketsAreComputedOnDemandAndCanBeReleased() {
+        Random random = new Random(12);
+        float[] colors = randomColors(random);
+        DirectionBuckets buckets = buckets(colors, 16);
+        assertEquals(0, buckets.memorySize());
+        for (int pair = 0; pair < 10; pair++) {
+            int source = random.nextInt(COUNT), dest = random.nextInt(COUNT);
+            if (source != dest) buckets.engine(source, dest).nextPath();
+        }
+        assertTrue(buckets.memorySize() > 0);
+        buckets.release();
+        assertEquals(0, buckets.memorySize());
+        assertThrows(IllegalArgumentException.class, () -> buckets(colors, DirectionBuckets.MAX_COUNT + 1));
+    }
+}
@@ -0,0 +1,115 @@
+package io.github.orlouge.blockgradients;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GradientEngineTest {
+    private static final int COUNT = 2000;
+
+    private static float[] randomColors(Random random) {
+        float[] colors = new float[3 * COUNT];
+        for (int i = 0; i < colors.length; i++) colors[i] = random.nextFloat();
+        return colors;
+    }
+
+    // The first row, computed on the whole gradient graph: neighbors within the box of GradientIndex.MAX_DIFF found by
+    // brute force, and node factors from every entry near the initial middle color.
+    private static int[] referenceFirstRow(float[] colors, int source, int dest) {
+        double toDestX = (double) colors[3 * dest] - colors[3 * source];
+        double toDestY = (double) colors[3 * dest + 1] - colors[3 * source + 1];
+        double toDestZ = (double) colors[3 * dest + 2] - colors[3 * source + 2];
+        double toDestLength = Math.sqrt(toDestX * toDestX + toDestY * toDestY + toDestZ * toDestZ);
+        float halfWidth = (float) GradientIndex.MAX_DIFF;
+        CompactDAG.Builder builder = new CompactDAG.Builder(COUNT);
+        for (int id = 0; id < COUNT; id++) {
+            double x = colors[3 * id], y = colors[3 * id + 1], z = colors[3 * id + 2];
+            for (int neighbor = 0; neighbor < COUNT; neighbor++) {
+                if (neighbor == id || (id == source && neighbor == dest)) continue;
+                boolean inside = true;
+                for (int dim = 0; dim < 3; dim++) {
+                    inside &= colors[3 * neighbor + dim] >= colors[3 * id + dim] - halfWidth && colors[3 * neighbor + dim] <= colors[3 * id + dim] + halfWidth;
+                }
+                if (!inside) continue;
+                double dx = colors[3 * neighbor] - x, dy = colors[3 * neighbor + 1] - y, dz = colors[3 * neighbor + 2] - z;
+                double distance = NeighborGraph.distance(colors, id, neighbor);
+                double cosine = (toDestX * dx + toDestY * dy + toDestZ * dz) / (toDestLength * distance + 1e-10);
+                if (cosine > 0.0001 && distance > 0.04) {
+                    builder.addEdge(id, neighbor, 0.1 * (Math.exp(distance * 30) - 1) + 0.1 * (Math.exp(15 * (1 - cosine)) - 1));
+                }
+            }
+        }
+        CompactDAG graph = builder.build();
+        double[] factors = new double[COUNT];
+        for (int id = 0; id < COUNT; id++) {
+            double distance = 0;
+            for (int dim = 0; dim < 3; dim++) {
+                double middle = (((double) colors[3 * source + dim] + colors[3 * dest + dim]) * -0.5 + 0.5) % 1;
+                distance += (colors[3 * id + dim] - middle) * (colors[3 * id + dim] - middle);
+            }
+            distance = Math.sqrt(distance);
+            factors[id] = distance < 0.15 ? Math.exp(10 * (0.15 - distance)) : 1;
+        }
+        int[] path = new int[COUNT];
+        int length = graph.shortestPath(graph.toposort(), source, dest, factors, new double[COUNT], new int[COUNT], path);
+        if (length == 0) return null;
+        int[] row = new int[length + 2];
+        row[0] = source;
+        System.arraycopy(path, 0, row, 1, length);
+        row[length + 1] = dest;
+        return row;
+    }
+
+    @Test
+    public void firstRowIsTheShortestPathOfTheWholeGraph() {
+        Random random = new Random(9);
+        float[] colors = randomColors(random);
+        boolean[] hasDominant = new boolean[COUNT];
+        Arrays.fill(hasDominant, true);
+        GradientIndex index = new GradientIndex(colors, colors, hasDominant, false);
+        for (int pair = 0; pair < 10; pair++) {
+            int source = random.nextInt(COUNT), dest = random.nextInt(COUNT);
+            if (source == dest) continue;
+            GradientEngine engine = index.engine(source, dest, false);
+            assertNotNull(engine);
+            int[] expected = referenceFirstRow(colors, source, dest);
+            assertNotNull(expected);
+            assertArrayEquals(expected, engine.nextPath(), "pair " + source + " " + dest);
+        }
+    }
+
+    @Test
+    public void rowsAreDistinctForwardPaths() {
+        Random random = new Random(10);
+        float[] colors = randomColors(random);
+        boolean[] hasDominant = new boolean[COUNT];
+        for (int id = 0; id < COUNT; id++) hasDominant[id] = random.nextInt(4) != 0;
+        for (boolean grid : new boolean[]{false, true}) {
+            GradientIndex index = new GradientIndex(colors, colors, hasDominant, grid);
+            for (int pair = 0; pair < 4; pair++) {
+                int source = random.nextInt(COUNT), dest = random.nextInt(COUNT);
+                if (source == dest || !hasDominant[source] || !hasDominant[dest]) continue;
+                for (boolean dominant : new boolean[]{false, true}) {
+                    GradientEngine engine = index.engine(source, dest, dominant);
+                    Set<String> rows = new HashSet<>();
+                    int[] row;
+                    while (rows.size() < 100 && (row = engine.nextPath()) != null) {
+                        assertTrue(rows.add(Arrays.toString(row)), "repeated row");
+                        assertEquals(source, row[0]);
+                        assertEquals(dest, row[row.length - 1]);
+                        for (int i = 1; i < row.length; i++) {
+                            if (dominant) assertTrue(hasDominant[row[i]]);
+                            float distance = NeighborGraph.distance(colors, row[i - 1], row[i]);
+                            assertTrue(distance > 0.04 && distance <= GradientIndex.MAX_DIFF * (dominant ? 1.2 : 1) * Math.sqrt(3) + 1e-6);
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
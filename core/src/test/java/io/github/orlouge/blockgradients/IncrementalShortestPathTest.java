@@ -0,0 +1,84 @@
+package io.github.orlouge.blockgradients;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IncrementalShortestPathTest {
+    // Edges only go from a lower to a higher rank, with random ids so that the order differs from the ids.
+    private static CompactDAG randomDAG(Random random, int nodeCount, int degree, int[] rank) {
+        for (int i = 0; i < nodeCount; i++) rank[i] = i;
+        for (int i = nodeCount - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1), swap = rank[i];
+            rank[i] = rank[j];
+            rank[j] = swap;
+        }
+        int[] byRank = new int[nodeCount];
+        for (int node = 0; node < nodeCount; node++) byRank[rank[node]] = node;
+        CompactDAG.Builder builder = new CompactDAG.Builder(nodeCount);
+        for (int node = 0; node < nodeCount; node++) {
+            // Mostly short hops, so that paths are long
+            for (int e = 0; e < degree && rank[node] < nodeCount - 1; e++) {
+                int hop = 1 + random.nextInt(Math.min(nodeCount - 1 - rank[node], e == 0 ? 3 : 20));
+                builder.addEdge(node, byRank[rank[node] + hop], 0.1 + random.nextDouble());
+            }
+        }
+        return builder.build();
+    }
+
+    private static int referencePath(CompactDAG graph, int[] order, int source, int dest, double[] factors, int[] path) {
+        int nodeCount = graph.nodeCount();
+        return graph.shortestPath(order, source, dest, factors, new double[nodeCount], new int[nodeCount], path);
+    }
+
+    @Test
+    public void matchesFullRelaxationWhileWeightsChange() {
+        Random random = new Random(8);
+        for (int trial = 0; trial < 20; trial++) {
+            int nodeCount = 50 + random.nextInt(400);
+            int[] rank = new int[nodeCount];
+            CompactDAG graph = randomDAG(random, nodeCount, 1 + random.nextInt(5), rank);
+            int[] order = graph.toposort();
+            assertNotNull(order);
+            int source = order[random.nextInt(nodeCount / 4)], dest = order[nodeCount - 1 - random.nextInt(nodeCount / 4)];
+            IncrementalShortestPath shortestPaths = new IncrementalShortestPath(graph, order, source, dest);
+            double[] factors = new double[nodeCount];
+            Arrays.fill(factors, 1);
+            int[] path = new int[nodeCount], expected = new int[nodeCount];
+
+            for (int step = 0; step < 60; step++) {
+                int length = shortestPaths.shortestPath(path);
+                int expectedLength = referencePath(graph, order, source, dest, factors, expected);
+                assertEquals(expectedLength, length, "trial " + trial + " step " + step);
+                assertArrayEquals(Arrays.copyOf(expected, expectedLength), Arrays.copyOf(path, length), "trial " + trial + " step " + step);
+                if (length == 0) break;
+
+                // The same kinds of changes as GradientEngine: scaled and removed path edges, moving node factors
+                for (int i = 0; i < length - 1; i++) {
+                    int edge = graph.findEdge(path[i], path[i + 1]);
+                    if (edge >= 0 && random.nextBoolean()) shortestPaths.scaleWeight(edge, 1 + 50 * random.nextDouble());
+                }
+                int removed = graph.findEdge(path[random.nextInt(length)], path[random.nextInt(length)]);
+                if (removed >= 0) shortestPaths.removeEdge(removed);
+                for (int i = 0; i < 10; i++) {
+                    int node = random.nextInt(nodeCount);
+                    factors[node] = random.nextBoolean() ? 1 : 1 + 3 * random.nextDouble();
+                    shortestPaths.setNodeFactor(node, factors[node]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void disconnectedDestHasNoPath() {
+        CompactDAG.Builder builder = new CompactDAG.Builder(4);
+        builder.addEdge(0, 1, 1);
+        builder.addEdge(2, 3, 1);
+        CompactDAG graph = builder.build();
+        IncrementalShortestPath shortestPaths = new IncrementalShortestPath(graph, graph.toposort(), 0, 3);
+        assertEquals(0, shortestPaths.shortestPath(new int[4]));
+    }
+}
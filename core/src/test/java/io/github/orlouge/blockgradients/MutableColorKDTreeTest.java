@@ -0,0 +1,119 @@
+package io.github.orlouge.blockgradients;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MutableColorKDTreeTest {
+    private static final int IDS = 4000;
+
+    private static double squaredDistance(float[] coords, int id, float x, float y, float z) {
+        double dx = coords[3 * id] - x, dy = coords[3 * id + 1] - y, dz = coords[3 * id + 2] - z;
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    // Compares the tree with linear scans over the ids marked live, whose points are in coords.
+    private static void checkQueries(MutableColorKDTree tree, float[] coords, boolean[] live, Random random) {
+        int[] liveIds = IntStream.range(0, IDS).filter(id -> live[id]).toArray();
+        assertEquals(liveIds.length, tree.size());
+        for (int id = 0; id < IDS; id++) assertEquals(live[id], tree.contains(id));
+        // Scapegoat rebuilds keep the depth logarithmic in the node count, which tombstones at most double.
+        assertTrue(tree.height() <= Math.log(2 * liveIds.length + 2) / Math.log(1 / 0.7) + 2, "height " + tree.height());
+
+        int[] found = new int[10];
+        double[] distances = new double[10];
+        for (int query = 0; query < 30; query++) {
+            float x = random.nextFloat(), y = random.nextFloat(), z = random.nextFloat();
+            double[] expected = Arrays.stream(liveIds).mapToDouble(id -> squaredDistance(coords, id, x, y, z)).sorted().limit(10).toArray();
+            int count = tree.kNearest(x, y, z, 10, found, distances);
+            assertEquals(expected.length, count);
+            for (int i = 0; i < count; i++) {
+                assertTrue(live[found[i]]);
+                assertEquals(expected[i], squaredDistance(coords, found[i], x, y, z));
+                assertEquals(expected[i], distances[i]);
+            }
+            int nearest = tree.nearest(x, y, z);
+            if (liveIds.length == 0) {
+                assertEquals(-1, nearest);
+            } else {
+                assertEquals(expected[0], squaredDistance(coords, nearest, x, y, z));
+            }
+
+            float[] min = {x - 0.1f, y - 0.1f, z - 0.1f}, max = {x + 0.1f, y + 0.1f, z + 0.1f};
+            Set<Integer> inRange = new HashSet<>();
+            for (int id : liveIds) {
+                boolean inside = true;
+                for (int dim = 0; dim < 3; dim++) inside &= coords[3 * id + dim] >= min[dim] && coords[3 * id + dim] <= max[dim];
+                if (inside) inRange.add(id);
+            }
+            Set<Integer> searched = new HashSet<>();
+            tree.rangeSearch(min, max, id -> assertTrue(searched.add(id)));
+            assertEquals(inRange, searched);
+        }
+    }
+
+    private static void insert(MutableColorKDTree tree, float[] coords, boolean[] live, int id, float x, float y, float z) {
+        coords[3 * id] = x;
+        coords[3 * id + 1] = y;
+        coords[3 * id + 2] = z;
+        live[id] = true;
+        tree.insert(id, x, y, z);
+    }
+
+    @Test
+    public void randomEditsMatchBruteForce() {
+        Random random = new Random(14);
+        float[] coords = ColorKDTreeTest.latticeColors(random, IDS, 25);
+        boolean[] live = new boolean[IDS];
+        int[] initial = IntStream.range(0, IDS / 4).toArray();
+        for (int id : initial) live[id] = true;
+        MutableColorKDTree tree = new MutableColorKDTree(coords, initial);
+        checkQueries(tree, coords, live, random);
+
+        for (int step = 1; step <= 6000; step++) {
+            int id = random.nextInt(IDS), operation = random.nextInt(10);
+            if (operation < 4) {
+                assertEquals(live[id], tree.remove(id));
+                live[id] = false;
+            } else if (operation < 8) {
+                // New ids and moved ones, on the lattice so that many components are equal
+                insert(tree, coords, live, id, Math.round(random.nextFloat() * 25) / 25f, Math.round(random.nextFloat() * 25) / 25f, Math.round(random.nextFloat() * 25) / 25f);
+            } else {
+                // Runs of increasing points, the worst case for an unbalanced tree
+                float y = random.nextFloat(), z = random.nextFloat();
+                for (int i = 0; i < 20; i++) insert(tree, coords, live, (id + i) % IDS, (step % 500 + i) / 520f, y, z);
+            }
+            if (step % 250 == 0) checkQueries(tree, coords, live, random);
+        }
+    }
+
+    @Test
+    public void sortedInsertionsAndMassRemovalsStayBalanced() {
+        Random random = new Random(15);
+        float[] coords = new float[3 * IDS];
+        boolean[] live = new boolean[IDS];
+        MutableColorKDTree tree = new MutableColorKDTree();
+        checkQueries(tree, coords, live, random);
+        for (int id = 0; id < IDS; id++) insert(tree, coords, live, id, id / (float) IDS, id / (float) IDS, 0.5f);
+        checkQueries(tree, coords, live, random);
+        for (int id = 0; id < IDS; id++) {
+            if (id % 10 != 0) {
+                assertTrue(tree.remove(id));
+                live[id] = false;
+            }
+        }
+        assertFalse(tree.remove(1));
+        checkQueries(tree, coords, live, random);
+        for (int id = 0; id < IDS; id += 10) {
+            tree.remove(id);
+            live[id] = false;
+        }
+        checkQueries(tree, coords, live, random);
+    }
+}
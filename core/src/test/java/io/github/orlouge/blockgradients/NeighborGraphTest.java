@@ -0,0 +1,65 @@
+package io.github.orlouge.blockgradients;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NeighborGraphTest {
+    private static Map<Integer, Float> neighborhood(NeighborGraph graph, int id) {
+        Map<Integer, Float> neighbors = new HashMap<>();
+        for (int i = graph.start(id); i < graph.end(id); i++) {
+            assertNull(neighbors.put(graph.neighbor(i), graph.hasDistances() ? graph.distance(i) : 0), "duplicate neighbor");
+        }
+        return neighbors;
+    }
+
+    @Test
+    public void rangeSearchFindsTheBoxAroundEveryCenter() {
+        Random random = new Random(5);
+        int count = 4000;
+        float[] coords = ColorKDTreeTest.latticeColors(random, count, 25), centers = ColorKDTreeTest.latticeColors(random, count, 25);
+        int[] ids = IntStream.range(0, count).filter(id -> id % 4 != 0).toArray();
+        float halfWidth = 0.1f;
+        NeighborGraph graph = NeighborGraph.rangeSearch(new ColorKDTree(coords, ids), coords, centers, ids, count, halfWidth, true);
+        assertEquals(count, graph.nodeCount());
+        for (int id = 0; id < count; id++) {
+            Map<Integer, Float> expected = new HashMap<>();
+            if (id % 4 != 0) {
+                for (int other : ids) {
+                    boolean inside = true;
+                    for (int dim = 0; dim < 3; dim++) {
+                        inside &= coords[3 * other + dim] >= centers[3 * id + dim] - halfWidth && coords[3 * other + dim] <= centers[3 * id + dim] + halfWidth;
+                    }
+                    if (inside) expected.put(other, NeighborGraph.distance(coords, id, other));
+                }
+            }
+            assertEquals(expected, neighborhood(graph, id), "id " + id);
+        }
+    }
+
+    @Test
+    public void gridFindsEveryPairWithinTheRadius() {
+        Random random = new Random(6);
+        int count = 4000;
+        float[] coords = ColorKDTreeTest.latticeColors(random, count, 25);
+        int[] ids = IntStream.range(0, count).filter(id -> id % 4 != 0).toArray();
+        float radius = 0.15f;
+        NeighborGraph graph = new ColorGrid(coords, ids, radius).neighborGraph(count);
+        for (int id = 0; id < count; id++) {
+            Map<Integer, Float> expected = new HashMap<>();
+            if (id % 4 != 0) {
+                for (int other : ids) {
+                    if (other == id) continue;
+                    float dx = coords[3 * other] - coords[3 * id], dy = coords[3 * other + 1] - coords[3 * id + 1], dz = coords[3 * other + 2] - coords[3 * id + 2];
+                    if (dx * dx + dy * dy + dz * dz <= radius * radius) expected.put(other, NeighborGraph.distance(coords, id, other));
+                }
+            }
+            assertEquals(expected, neighborhood(graph, id), "id " + id);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package io.github.orlouge.blockgradients;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class QuadBatchTest {
+    private static void addQuad(QuadBatch<String> batch, String texture, int i) {
+        batch.add(texture, i, i + 1, i + 2, i + 3, i + 0.25f, i + 0.5f, i + 0.75f, i + 1);
+    }
+
+    private static void assertQuads(QuadBatch<String> batch, int group, int... expected) {
+        assertEquals(expected.length, batch.quadCount(group));
+        float[] quads = batch.quads(group);
+        for (int q = 0; q < expected.length; q++) {
+            int i = expected[q];
+            float[] quad = Arrays.copyOfRange(quads, q * QuadBatch.FLOATS_PER_QUAD, (q + 1) * QuadBatch.FLOATS_PER_QUAD);
+            assertArrayEquals(new float[]{i, i + 1, i + 2, i + 3, i + 0.25f, i + 0.5f, i + 0.75f, i + 1}, quad);
+        }
+    }
+
+    @Test
+    public void quadsAreGroupedByTextureInOrderOfFirstUse() {
+        QuadBatch<String> batch = new QuadBatch<>();
+        addQuad(batch, "stone", 0);
+        addQuad(batch, "dirt", 1);
+        addQuad(batch, "stone", 2);
+        for (int i = 3; i < 40; i++) addQuad(batch, "sand", i);
+        assertEquals(3, batch.groupCount());
+        assertEquals("stone", batch.texture(0));
+        assertEquals("dirt", batch.texture(1));
+        assertEquals("sand", batch.texture(2));
+        assertQuads(batch, 0, 0, 2);
+        assertQuads(batch, 1, 1);
+        assertQuads(batch, 2, IntStream.range(3, 40).toArray());
+    }
+
+    @Test
+    public void clearEmptiesGroupsAndKeepsTheirArrays() {
+        QuadBatch<String> batch = new QuadBatch<>();
+        for (int i = 0; i < 20; i++) addQuad(batch, i % 2 == 0 ? "stone" : "dirt", i);
+        float[] stoneQuads = batch.quads(0);
+        batch.clear();
+        assertEquals(2, batch.groupCount());
+        assertEquals(0, batch.quadCount(0));
+        assertEquals(0, batch.quadCount(1));
+
+        addQuad(batch, "dirt", 5);
+        addQuad(batch, "gravel", 6);
+        for (int i = 7; i < 17; i++) addQuad(batch, "stone", i);
+        assertEquals(3, batch.groupCount());
+        assertSame(stoneQuads, batch.quads(0));
+        assertQuads(batch, 0, IntStream.range(7, 17).toArray());
+        assertQuads(batch, 1, 5);
+        assertQuads(batch, 2, 6);
+    }
+}
@@ -2,8 +2,11 @@ package io.github.orlouge.blockgradients.forge;
 
 import io.github.orlouge.blockgradients.BlockMapScreen;
 import io.github.orlouge.blockgradients.Config;
+import io.github.orlouge.blockgradients.GradientCache;
 import io.github.orlouge.blockgradients.KeyBindings;
 import net.minecraft.client.MinecraftClient;
+import net.minecraft.resource.SynchronousResourceReloader;
+import net.minecraftforge.client.event.RegisterClientReloadListenersEvent;
 import net.minecraftforge.client.event.RegisterKeyMappingsEvent;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.event.TickEvent;
@@ -13,6 +16,7 @@ public class BlockGradientsClientMod {
     public static int init() {
         Config.loadConfig();
         FMLJavaModLoadingContext.get().getModEventBus().addListener(BlockGradientsClientMod::registerBindings);
+        FMLJavaModLoadingContext.get().getModEventBus().addListener(BlockGradientsClientMod::registerReloadListeners);
         MinecraftForge.EVENT_BUS.addListener(BlockGradientsClientMod::onClientTick);
         return 0;
     }
@@ -21,6 +25,10 @@ public class BlockGradientsClientMod {
         event.register(KeyBindings.OPEN_BLOCKMAP_KEY_BINDING.get());
     }
 
+    public static void registerReloadListeners(RegisterClientReloadListenersEvent event) {
+        event.registerReloadListener((SynchronousResourceReloader) manager -> GradientCache.invalidate());
+    }
+
     public static void onClientTick(TickEvent.ClientTickEvent event) {
         if (event.phase == TickEvent.Phase.END) {
             MinecraftClient mc = MinecraftClient.getInstance();